@@ -0,0 +1,148 @@
+package org.zeromq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values, such as latencies in nanoseconds. Values are counted in power of
+ * two buckets, so recording is a couple of atomic increments and percentiles are accurate to within a factor of two.
+ * Safe to record from several threads while another one takes snapshots.
+ */
+public class Histogram
+{
+    private static final int BUCKETS = 64;
+
+    // Bucket 0 counts zero, bucket i counts values in [2^(i-1), 2^i)
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are counted as zero.
+     * @param value
+     *            value to record
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value))
+            ;
+    }
+
+    /**
+     * @return a consistent enough copy of the histogram, for reporting
+     */
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets.get(i);
+        return new Snapshot(counts, count.get(), sum.get(), max.get());
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int bucket(long value)
+    {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Immutable copy of a histogram.
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return number of recorded values
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return sum of recorded values
+         */
+        public long getSum()
+        {
+            return sum;
+        }
+
+        /**
+         * @return largest recorded value
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * @return mean of recorded values, 0 if none
+         */
+        public double getMean()
+        {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, never above the largest recorded value.
+         * @param percentile
+         *            percentile between 0 and 100
+         * @return value under which at least that percentage of values fall, 0 if none were recorded
+         */
+        public long getPercentile(double percentile)
+        {
+            long total = 0;
+            for (long c : counts)
+                total += c;
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    long upper = i == 0 ? 0 : i == 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", count, getMean(), getPercentile(50),
+                    getPercentile(99), max);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.zeromq;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registration of metrics with the platform MBean server, shared by ZLoopMetrics and ZDispatcherMetrics.
+ */
+final class Jmx {
+
+    private Jmx() {
+    }
+
+    /**
+     * Registers an MBean as org.zeromq:type=&lt;type&gt;,name=&lt;name&gt;.
+     *
+     * @return the name it was registered under
+     * @throws IllegalStateException if it could not be registered
+     */
+    static ObjectName register(Object mbean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName("org.zeromq:type=" + type + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + type + " metrics " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters an MBean registered by register().
+     *
+     * @throws IllegalStateException if it could not be unregistered
+     */
+    static void unregister(ObjectName objectName, String type) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister " + type + " metrics " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.zeromq;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, preallocated ring buffer for many producer threads and one consumer at a time. Producers claim slots with a
+ * single CAS and never lock or allocate; each slot carries a sequence number telling whether it holds an element, and
+ * the consumer claims a whole batch of them with a single CAS on the head.
+ *
+ * Several threads may take turns as the consumer, as long as something else, such as a CAS on a busy flag, makes sure
+ * they never consume concurrently. Any thread may still remove the oldest element meanwhile, for instance a producer
+ * making room in a full ring: the head CAS makes sure each element is removed once.
+ */
+final class MpscRing<E>
+{
+    // Padding keeps each index on its own cache line, so producers and the
+    // consumer do not invalidate each other's line on every update
+    @SuppressWarnings("unused")
+    private static final class PaddedAtomicLong extends AtomicLong
+    {
+        private static final long serialVersionUID = 1L;
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        private PaddedAtomicLong(long initialValue)
+        {
+            super(initialValue);
+        }
+    }
+
+    private final int mask;
+    private final Object[] elements;
+    // Slot i is free for the producer of position p when its sequence is p,
+    // and holds the element of position p when its sequence is p + 1
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(0); // Next position to claim
+    private final PaddedAtomicLong head = new PaddedAtomicLong(0); // Next position to consume
+
+    /**
+     * @param capacity
+     *            maximum number of elements, rounded up to a power of two
+     */
+    MpscRing(int capacity)
+    {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * @return maximum number of elements
+     */
+    int capacity()
+    {
+        return elements.length;
+    }
+
+    /**
+     * Adds an element, from any thread.
+     * @param e
+     *            element to add, not null
+     * @return false if the ring was full
+     */
+    boolean offer(E e)
+    {
+        if (e == null)
+            throw new NullPointerException();
+        for (;;) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long delta = sequences.get(index) - position;
+            if (delta == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = e;
+                    // Publishes the element to the consumer
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            }
+            else if (delta < 0) {
+                // The slot still holds the element of the previous lap
+                return false;
+            }
+            // Otherwise another producer claimed the position first, retry
+        }
+    }
+
+    /**
+     * Removes the oldest element, from any thread.
+     * @return the element, or null if none was available
+     */
+    @SuppressWarnings("unchecked")
+    E poll()
+    {
+        for (;;) {
+            long position = head.get();
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1)
+                return null;
+            E e = (E) elements[index];
+            if (head.compareAndSet(position, position + 1)) {
+                elements[index] = null;
+                // Hands the slot over to the producers of the next lap
+                sequences.lazySet(index, position + elements.length);
+                return e;
+            }
+            // Another thread removed it first, retry
+        }
+    }
+
+    /**
+     * Removes as many available elements as fit in a buffer. Consumer only.
+     * @param buffer
+     *            buffer to fill from index 0
+     * @return number of elements removed
+     */
+    @SuppressWarnings("unchecked")
+    int drain(E[] buffer)
+    {
+        for (;;) {
+            long start = head.get();
+            long position = start;
+            int count = 0;
+            while (count < buffer.length) {
+                int index = (int) position & mask;
+                if (sequences.get(index) != position + 1)
+                    break;
+                buffer[count++] = (E) elements[index];
+                position++;
+            }
+            if (count == 0)
+                return 0;
+            if (head.compareAndSet(start, position)) {
+                for (long p = start; p < position; p++) {
+                    int index = (int) p & mask;
+                    elements[index] = null;
+                    sequences.lazySet(index, p + elements.length);
+                }
+                return count;
+            }
+            // The oldest elements were removed meanwhile, start over
+            Arrays.fill(buffer, 0, count, null);
+        }
+    }
+
+    /**
+     * @return true if the consumer would get no element right now
+     */
+    boolean isEmpty()
+    {
+        long position = head.get();
+        return sequences.get((int) position & mask) != position + 1;
+    }
+
+    /**
+     * @return true if a producer would fail to add an element right now
+     */
+    boolean isFull()
+    {
+        long position = tail.get();
+        return sequences.get((int) position & mask) - position < 0;
+    }
+
+    /**
+     * @return approximate number of elements, exact when no thread is adding or removing any
+     */
+    int size()
+    {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, elements.length));
+    }
+}
@@ -0,0 +1,93 @@
+package org.zeromq;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads, on JDKs that have them, without requiring such a JDK to build or run jzmq.
+ *
+ * Virtual threads make blocking cheap when the blocking happens in Java code, such as file or socket I/O. A virtual
+ * thread blocked inside a native call, which includes every 0MQ call, keeps its carrier thread busy; sockets are
+ * therefore best left to platform threads, with virtual threads running the handlers that block elsewhere.
+ */
+public final class VirtualThreads {
+    private static final Object BUILDER; // Thread.ofVirtual() builder, or null
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Object builder = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (Exception e) {
+            // Not available on this JDK, or still a preview feature
+            builder = null;
+        }
+        BUILDER = builder;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads
+     */
+    public static boolean isSupported() {
+        return BUILDER != null;
+    }
+
+    /**
+     * Creates a factory of virtual threads.
+     *
+     * @param prefix prefix of the thread names, followed by a counter
+     * @return a factory of unstarted virtual threads
+     * @throws UnsupportedOperationException if the JDK does not support virtual threads
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        try {
+            // The builder is not thread-safe, but the factory it creates is
+            synchronized (BUILDER) {
+                return (ThreadFactory) FACTORY.invoke(NAME.invoke(BUILDER, prefix, 0L));
+            }
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException(e.getCause());
+        }
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @param prefix prefix of the thread names, followed by a counter
+     * @return the executor, to be shut down by the caller
+     * @throws UnsupportedOperationException if the JDK does not support virtual threads
+     */
+    public static ExecutorService newPerTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException(e.getCause());
+        }
+    }
+}
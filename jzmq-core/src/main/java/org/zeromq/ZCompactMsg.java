@@ -0,0 +1,1131 @@
+package org.zeromq;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Multipart message stored compactly: the data of all frames lives in one growable buffer, on the heap or off-heap,
+ * and each frame is an offset and a length into it. Building, duplicating and saving a message with many small
+ * frames then costs a handful of objects instead of an array and a ZFrame per frame.
+ *
+ * The methods follow those of ZMsg. Frames are added from arrays, strings or ZFrames, and read through FrameView
+ * flyweights, which stay valid until the message is next modified. Frames taken out of the message with pop() and
+ * the like are copied into new ZFrames owned by the caller.
+ *
+ * <pre>
+ * ZCompactMsg msg = new ZCompactMsg();
+ * msg.add(&quot;key&quot;);
+ * msg.add(payload);
+ * msg.send(output);
+ *
+ * ZCompactMsg received = ZCompactMsg.recvMsg(input);
+ * for (ZCompactMsg.FrameView f : received) {
+ *     // Do something with frame f, without copying it
+ * }
+ * </pre>
+ *
+ * Like ZMsg, a ZCompactMsg is not thread-safe.
+ */
+public class ZCompactMsg implements Iterable<ZCompactMsg.FrameView>
+{
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int DEFAULT_FRAMES = 8;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private final boolean direct;
+    private ByteBuffer buffer;
+    // Backing array of a heap buffer, null for a direct one
+    private byte[] array;
+    // Data is appended at end; bytes below it that no frame uses any more are
+    // reclaimed when the buffer grows
+    private int end;
+    private int live;
+
+    // Frame i of the message is at offsets[head + i], for lengths[head + i] bytes
+    private int[] offsets;
+    private int[] lengths;
+    private int head;
+    private int count;
+
+    // Array the frames of a direct message are received into before they are
+    // copied to the buffer, reused while large enough
+    private byte[] scratch;
+
+    /**
+     * Creates an empty message stored on the heap.
+     */
+    public ZCompactMsg()
+    {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Creates an empty message.
+     * @param capacity
+     *            initial size of the buffer in bytes, grown as needed
+     * @param direct
+     *            true to store the data in a direct buffer, off the Java heap
+     */
+    public ZCompactMsg(int capacity, boolean direct)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        this.direct = direct;
+        allocate(capacity);
+        this.offsets = new int[DEFAULT_FRAMES];
+        this.lengths = new int[DEFAULT_FRAMES];
+        this.head = DEFAULT_FRAMES / 2;
+    }
+
+    private void allocate(int capacity)
+    {
+        buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        array = direct ? null : buffer.array();
+    }
+
+    /**
+     * @return true if the data is stored in a direct buffer
+     */
+    public boolean isDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * @return number of frames
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return true if the message has no frames
+     */
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * How big is this message?
+     * @return number of bytes contained in all frames of this message
+     */
+    public long contentSize()
+    {
+        return live;
+    }
+
+    /**
+     * @return size of the buffer in bytes
+     */
+    public int capacity()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * Removes all frames, keeping the buffer for new ones.
+     */
+    public void clear()
+    {
+        end = 0;
+        live = 0;
+        count = 0;
+        head = offsets.length / 2;
+    }
+
+    /**
+     * Destructor. Removes all frames; the message may still be reused.
+     */
+    public void destroy()
+    {
+        clear();
+    }
+
+    // ********* Adding frames ****************************** //
+
+    public void add(byte[] data)
+    {
+        addLast(data, 0, data.length);
+    }
+
+    public void add(byte[] data, int offset, int length)
+    {
+        addLast(data, offset, length);
+    }
+
+    public void add(String str)
+    {
+        add(str.getBytes(ENCODING));
+    }
+
+    public void add(ZFrame frame)
+    {
+        addLast(frame);
+    }
+
+    public void addString(String str)
+    {
+        add(str);
+    }
+
+    public void addLast(byte[] data)
+    {
+        addLast(data, 0, data.length);
+    }
+
+    public void addLast(String str)
+    {
+        add(str);
+    }
+
+    public void addLast(ZFrame frame)
+    {
+        if (frame.isDirect()) {
+            insert(count, frame.getBuffer());
+        }
+        else {
+            byte[] data = frame.hasData() ? frame.getData() : new byte[0];
+            addLast(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Adds a frame at the end of the message, copying its data into the buffer.
+     * @param data
+     *            array holding the data of the frame
+     * @param offset
+     *            start of the data in the array
+     * @param length
+     *            size of the frame in bytes
+     */
+    public void addLast(byte[] data, int offset, int length)
+    {
+        insert(count, data, offset, length);
+    }
+
+    public void addFirst(byte[] data)
+    {
+        insert(0, data, 0, data.length);
+    }
+
+    public void addFirst(String str)
+    {
+        addFirst(str.getBytes(ENCODING));
+    }
+
+    public void addFirst(ZFrame frame)
+    {
+        if (frame.isDirect()) {
+            insert(0, frame.getBuffer());
+        }
+        else {
+            addFirst(frame.hasData() ? frame.getData() : new byte[0]);
+        }
+    }
+
+    public void push(byte[] data)
+    {
+        addFirst(data);
+    }
+
+    public void push(String str)
+    {
+        addFirst(str);
+    }
+
+    public void push(ZFrame frame)
+    {
+        addFirst(frame);
+    }
+
+    /**
+     * Push frame plus empty frame to front of message, before 1st frame.
+     * @param frame
+     */
+    public void wrap(ZFrame frame)
+    {
+        if (frame != null) {
+            push(new byte[0]);
+            push(frame);
+        }
+    }
+
+    /**
+     * Pop frame off front of message, caller now owns frame. If next frame is
+     * empty, removes that empty frame too (e.g. useful when unwrapping ROUTER
+     * socket envelopes)
+     * @return Unwrapped frame
+     */
+    public ZFrame unwrap()
+    {
+        ZFrame f = pop();
+        if (count > 0 && lengths[head] == 0)
+            removeAt(0);
+        return f;
+    }
+
+    // ********* Reading frames ***************************** //
+
+    /**
+     * @param index
+     *            position of the frame in the message, from 0
+     * @return view of the frame, valid until the message is modified
+     * @throws IndexOutOfBoundsException
+     *             if there is no such frame
+     */
+    public FrameView get(int index)
+    {
+        checkIndex(index);
+        return new FrameView(this, index);
+    }
+
+    /**
+     * @return view of the first frame, or null if the message is empty
+     */
+    public FrameView peekFirst()
+    {
+        return count == 0 ? null : new FrameView(this, 0);
+    }
+
+    /**
+     * @return view of the last frame, or null if the message is empty
+     */
+    public FrameView peekLast()
+    {
+        return count == 0 ? null : new FrameView(this, count - 1);
+    }
+
+    public FrameView peek()
+    {
+        return peekFirst();
+    }
+
+    /**
+     * @return view of the first frame
+     * @throws NoSuchElementException
+     *             if the message is empty
+     */
+    public FrameView getFirst()
+    {
+        if (count == 0)
+            throw new NoSuchElementException();
+        return peekFirst();
+    }
+
+    /**
+     * @return view of the last frame
+     * @throws NoSuchElementException
+     *             if the message is empty
+     */
+    public FrameView getLast()
+    {
+        if (count == 0)
+            throw new NoSuchElementException();
+        return peekLast();
+    }
+
+    /**
+     * Iterates over the frames with a single view, moved from frame to frame.
+     * Keep the data of a frame with FrameView.getData() or toFrame(), not the
+     * view itself.
+     */
+    @Override
+    public Iterator<FrameView> iterator()
+    {
+        return new Iterator<FrameView>()
+        {
+            private final FrameView view = new FrameView(ZCompactMsg.this, -1);
+
+            @Override
+            public boolean hasNext()
+            {
+                return view.index + 1 < count;
+            }
+
+            @Override
+            public FrameView next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                view.index++;
+                return view;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // ********* Removing frames **************************** //
+
+    /**
+     * @return the first frame, copied into a new ZFrame, or null if the message
+     *         is empty
+     */
+    public ZFrame pop()
+    {
+        return pollFirst();
+    }
+
+    public ZFrame pollFirst()
+    {
+        if (count == 0)
+            return null;
+        ZFrame frame = new ZFrame(copyOf(0));
+        removeAt(0);
+        return frame;
+    }
+
+    public ZFrame pollLast()
+    {
+        if (count == 0)
+            return null;
+        ZFrame frame = new ZFrame(copyOf(count - 1));
+        removeAt(count - 1);
+        return frame;
+    }
+
+    public ZFrame poll()
+    {
+        return pollFirst();
+    }
+
+    /**
+     * @return the first frame, copied into a new ZFrame
+     * @throws NoSuchElementException
+     *             if the message is empty
+     */
+    public ZFrame removeFirst()
+    {
+        if (count == 0)
+            throw new NoSuchElementException();
+        return pollFirst();
+    }
+
+    /**
+     * @return the last frame, copied into a new ZFrame
+     * @throws NoSuchElementException
+     *             if the message is empty
+     */
+    public ZFrame removeLast()
+    {
+        if (count == 0)
+            throw new NoSuchElementException();
+        return pollLast();
+    }
+
+    /**
+     * Pop a frame and return the toString() representation of it.
+     * @return toString version of pop'ed frame, or null if no frame exists.
+     */
+    public String popString()
+    {
+        if (count == 0)
+            return null;
+        String str = new FrameView(this, 0).toString();
+        removeAt(0);
+        return str;
+    }
+
+    /**
+     * Removes a frame without copying it.
+     * @param index
+     *            position of the frame in the message, from 0
+     */
+    public void remove(int index)
+    {
+        checkIndex(index);
+        removeAt(index);
+    }
+
+    // ********* Sending and receiving ********************** //
+
+    /**
+     * Send message to 0MQ socket, and clears it once sent.
+     * @param socket
+     *            0MQ socket to send message on.
+     * @return true if all frames were queued, false if the socket would have
+     *         blocked
+     */
+    public boolean send(Socket socket)
+    {
+        return send(socket, true);
+    }
+
+    /**
+     * Send message to 0MQ socket, straight from its buffer, and clears it after
+     * sending if destroy is set to true. If the message has no frames, sends
+     * nothing.
+     * @param socket
+     *            0MQ socket to send message on.
+     * @param destroy
+     *            true to clear the message once sent
+     * @return true if all frames were queued, false if the socket would have
+     *         blocked
+     */
+    public boolean send(Socket socket, boolean destroy)
+    {
+        if (socket == null)
+            throw new IllegalArgumentException("socket is null");
+        for (int i = 0; i < count; i++) {
+            int flags = i + 1 < count ? ZMQ.SNDMORE : 0;
+            if (!sendFrame(socket, i, flags))
+                return false;
+        }
+        if (destroy)
+            destroy();
+        return true;
+    }
+
+    private boolean sendFrame(Socket socket, int index, int flags)
+    {
+        int offset = offsets[head + index];
+        int length = lengths[head + index];
+        if (!direct)
+            return socket.send(array, offset, length, flags);
+        buffer.limit(offset + length);
+        buffer.position(offset);
+        try {
+            return ZFrame.sendBuffer(socket, buffer, flags);
+        }
+        finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Receives message from socket into a new heap message. Does a blocking
+     * recv.
+     * @param socket
+     * @return message or null if the recv was interrupted
+     */
+    public static ZCompactMsg recvMsg(Socket socket)
+    {
+        return recvMsg(socket, 0, null);
+    }
+
+    /**
+     * Receives message from socket into a new heap message.
+     * @param socket
+     * @param flag
+     *            see ZMQ constants
+     * @return message or null if there was no input waiting or if the recv was
+     *         interrupted
+     */
+    public static ZCompactMsg recvMsg(Socket socket, int flag)
+    {
+        return recvMsg(socket, flag, null);
+    }
+
+    /**
+     * Receives message from socket into an existing message, whose buffer is
+     * reused, so that a consumer receiving similar messages allocates next to
+     * nothing in the steady state. A heap message receives its frames straight
+     * into the free space of its buffer when they fit there.
+     * @param socket
+     * @param flag
+     *            see ZMQ constants
+     * @param reuse
+     *            message to receive into, or null to allocate a new one
+     * @return the received message, which is reuse if given, or null if there
+     *         was no input waiting (reuse is then left unchanged) or if the recv
+     *         was interrupted
+     * @throws ZMQException
+     *             if the recv failed; reuse is then cleared
+     */
+    public static ZCompactMsg recvMsg(Socket socket, int flag, ZCompactMsg reuse)
+    {
+        if (socket == null)
+            throw new IllegalArgumentException("socket is null");
+
+        ZCompactMsg msg = reuse == null ? new ZCompactMsg() : reuse;
+        try {
+            if (!msg.recvFrame(socket, flag, true))
+                return null;
+            while (socket.hasReceiveMore()) {
+                if (!msg.recvFrame(socket, flag, false)) {
+                    // Interrupted in the middle of a multipart message
+                    msg.clear();
+                    return null;
+                }
+            }
+        }
+        catch (ZMQException e) {
+            msg.clear();
+            throw e;
+        }
+        return msg;
+    }
+
+    /**
+     * Receives a frame at the end of the message, or in place of all its
+     * frames if first is set. Nothing is written to the message unless a frame
+     * is received, so the frames it replaces may be overwritten.
+     * @return false if nothing was received
+     */
+    private boolean recvFrame(Socket socket, int flags, boolean first)
+    {
+        int offset = first ? 0 : end;
+        byte[] data;
+        try {
+            data = direct ? socket.recv(scratch, flags) : socket.recv(array, offset, flags);
+        }
+        catch (ZMQException e) {
+            ZMQ.Error error = ZMQ.Error.findByCode(e.getErrorCode());
+            if (error == ZMQ.Error.ETERM || error == ZMQ.Error.ENOTSOCK)
+                return false;
+            throw e;
+        }
+        if (data == null)
+            return false;
+        int length = socket.getReceivedSize();
+        if (first)
+            clear();
+        if (data == array) {
+            // Already in the buffer, at the offset reserve() picks
+            reserve(count, length);
+            return true;
+        }
+        if (direct)
+            scratch = data;
+        insert(count, data, 0, length);
+        return true;
+    }
+
+    // ********* Copying and converting ********************* //
+
+    /**
+     * Creates a copy of this message, with the same kind of buffer, holding
+     * only the data of its frames.
+     * @return the copy
+     */
+    public ZCompactMsg duplicate()
+    {
+        ZCompactMsg msg = new ZCompactMsg(live, direct);
+        msg.copyFrom(this);
+        return msg;
+    }
+
+    /**
+     * @return a ZMsg holding a copy of every frame
+     */
+    public ZMsg toMsg()
+    {
+        ZMsg msg = new ZMsg();
+        for (int i = 0; i < count; i++)
+            msg.add(new ZFrame(copyOf(i)));
+        return msg;
+    }
+
+    /**
+     * Copies a ZMsg into a new compact message stored on the heap.
+     * @param msg
+     *            message to copy
+     * @return the compact message
+     */
+    public static ZCompactMsg fromMsg(ZMsg msg)
+    {
+        ZCompactMsg compact = new ZCompactMsg((int) Math.min(msg.contentSize(), MAX_CAPACITY), false);
+        for (ZFrame frame : msg)
+            compact.addLast(frame);
+        return compact;
+    }
+
+    /**
+     * Create a new message from one or more Strings
+     * @param strings
+     *            Strings to add as frames.
+     * @return message
+     */
+    public static ZCompactMsg newStringMsg(String... strings)
+    {
+        ZCompactMsg msg = new ZCompactMsg();
+        for (String str : strings)
+            msg.add(str);
+        return msg;
+    }
+
+    /**
+     * Save message to an open data output stream, in the format of ZMsg.save():
+     * 4 bytes: number of frames For every frame: 4 bytes: byte size of frame
+     * data + n bytes: frame byte data
+     * @param msg
+     *            message to save
+     * @param file
+     *            DataOutputStream
+     * @return True if saved OK, else false
+     */
+    public static boolean save(ZCompactMsg msg, DataOutputStream file)
+    {
+        if (msg == null)
+            return false;
+        try {
+            file.writeInt(msg.count);
+            byte[] chunk = msg.direct ? new byte[Math.min(msg.live, 8192)] : null;
+            for (int i = 0; i < msg.count; i++) {
+                int offset = msg.offsets[msg.head + i];
+                int length = msg.lengths[msg.head + i];
+                file.writeInt(length);
+                if (!msg.direct) {
+                    file.write(msg.array, offset, length);
+                    continue;
+                }
+                while (length > 0) {
+                    int n = Math.min(length, chunk.length);
+                    msg.buffer.position(offset);
+                    msg.buffer.get(chunk, 0, n);
+                    file.write(chunk, 0, n);
+                    offset += n;
+                    length -= n;
+                }
+            }
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            msg.buffer.clear();
+        }
+    }
+
+    /**
+     * Load a message saved by save() or ZMsg.save() from an open
+     * DataInputStream, reading frames straight into the buffer.
+     * @param file
+     *            DataInputStream connected to file
+     * @return message stored on the heap, or null if it could not be read
+     */
+    public static ZCompactMsg load(DataInputStream file)
+    {
+        if (file == null)
+            return null;
+        ZCompactMsg msg = new ZCompactMsg();
+        try {
+            int frames = file.readInt();
+            for (int i = 0; i < frames; i++) {
+                int length = file.readInt();
+                if (length < 0)
+                    return null;
+                int offset = msg.reserve(msg.count, length);
+                file.readFully(msg.array, offset, length);
+            }
+            return msg;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    // ********* Object methods ***************************** //
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        ZCompactMsg other = (ZCompactMsg) o;
+        if (count != other.count)
+            return false;
+        for (int i = 0; i < count; i++) {
+            if (!new FrameView(this, i).contentEquals(new FrameView(other, i)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = 1;
+        for (int i = 0; i < count; i++)
+            result = 31 * result + new FrameView(this, i).hashCode();
+        return result;
+    }
+
+    /**
+     * Dump the message in human readable format. This should only be used for
+     * debugging and tracing, inefficient in handling large messages.
+     **/
+    public void dump(Appendable out)
+    {
+        try {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            pw.printf("--------------------------------------\n");
+            for (FrameView frame : this) {
+                pw.printf("[%03d] %s\n", frame.size(), frame.toString());
+            }
+            out.append(sw.getBuffer());
+            sw.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Message dump exception " + super.toString(), e);
+        }
+    }
+
+    /**
+     * Convert the message to a string, for use in debugging.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        dump(sb);
+        return sb.toString();
+    }
+
+    // ********* Storage ************************************ //
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + count);
+    }
+
+    private byte get(int index, int i)
+    {
+        int position = offsets[head + index] + i;
+        return direct ? buffer.get(position) : array[position];
+    }
+
+    private byte[] copyOf(int index)
+    {
+        byte[] data = new byte[lengths[head + index]];
+        copyTo(index, data, 0);
+        return data;
+    }
+
+    private void copyTo(int index, byte[] dst, int dstOffset)
+    {
+        int offset = offsets[head + index];
+        int length = lengths[head + index];
+        if (!direct) {
+            System.arraycopy(array, offset, dst, dstOffset, length);
+            return;
+        }
+        buffer.position(offset);
+        buffer.get(dst, dstOffset, length);
+        buffer.clear();
+    }
+
+    private void insert(int index, byte[] data, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException();
+        int position = reserve(index, length);
+        if (!direct) {
+            System.arraycopy(data, offset, array, position, length);
+            return;
+        }
+        buffer.position(position);
+        buffer.put(data, offset, length);
+        buffer.clear();
+    }
+
+    private void insert(int index, ByteBuffer data)
+    {
+        int position = reserve(index, data.remaining());
+        buffer.position(position);
+        buffer.put(data.duplicate());
+        buffer.clear();
+    }
+
+    /**
+     * Makes room for a frame of length bytes at position index in the message.
+     * @return offset of the data of the new frame in the buffer
+     */
+    private int reserve(int index, int length)
+    {
+        if (buffer.capacity() - end < length)
+            grow(length);
+        if (index == 0) {
+            if (head == 0)
+                recenter(count + 1);
+            head--;
+        }
+        else {
+            if (head + count == offsets.length)
+                recenter(count + 1);
+        }
+        int offset = end;
+        offsets[head + index] = offset;
+        lengths[head + index] = length;
+        end += length;
+        live += length;
+        count++;
+        return offset;
+    }
+
+    private void removeAt(int index)
+    {
+        live -= lengths[head + index];
+        if (index == 0) {
+            head++;
+        }
+        else {
+            int from = head + index + 1;
+            int moved = count - index - 1;
+            System.arraycopy(offsets, from, offsets, from - 1, moved);
+            System.arraycopy(lengths, from, lengths, from - 1, moved);
+        }
+        count--;
+        if (count == 0)
+            clear();
+    }
+
+    /**
+     * Moves the frame table to the middle of arrays large enough for the given
+     * number of frames, leaving room to add frames at either end.
+     */
+    private void recenter(int frames)
+    {
+        int size = Math.max(DEFAULT_FRAMES, frames * 2);
+        int[] newOffsets = new int[size];
+        int[] newLengths = new int[size];
+        int newHead = (size - count) / 2;
+        System.arraycopy(offsets, head, newOffsets, newHead, count);
+        System.arraycopy(lengths, head, newLengths, newHead, count);
+        offsets = newOffsets;
+        lengths = newLengths;
+        head = newHead;
+    }
+
+    /**
+     * Moves the frames, in order and without the bytes no frame uses any more,
+     * to a buffer with room for at least another length bytes.
+     */
+    private void grow(int length)
+    {
+        long needed = (long) live + length;
+        if (needed > MAX_CAPACITY)
+            throw new IllegalStateException("Message too large");
+        long capacity = Math.max(buffer.capacity(), 16);
+        // Doubling keeps appends amortized, whether or not the frames
+        // currently in the buffer leave much of it unused
+        while (capacity < needed * 2 && capacity < MAX_CAPACITY)
+            capacity *= 2;
+        ByteBuffer old = buffer;
+        byte[] oldArray = array;
+        allocate((int) Math.min(capacity, MAX_CAPACITY));
+        int position = 0;
+        for (int i = head; i < head + count; i++) {
+            int offset = offsets[i];
+            int size = lengths[i];
+            if (oldArray != null) {
+                System.arraycopy(oldArray, offset, array, position, size);
+            }
+            else {
+                ByteBuffer src = old.duplicate();
+                src.limit(offset + size);
+                src.position(offset);
+                buffer.put(src);
+            }
+            offsets[i] = position;
+            position += size;
+        }
+        buffer.clear();
+        end = position;
+    }
+
+    private void copyFrom(ZCompactMsg other)
+    {
+        clear();
+        if (offsets.length < other.count * 2)
+            recenter(other.count);
+        for (int i = 0; i < other.count; i++) {
+            int offset = other.offsets[other.head + i];
+            int length = other.lengths[other.head + i];
+            if (!other.direct) {
+                insert(count, other.array, offset, length);
+            }
+            else {
+                ByteBuffer src = other.buffer.duplicate();
+                src.limit(offset + length);
+                src.position(offset);
+                insert(count, src);
+            }
+        }
+    }
+
+    /**
+     * Flyweight view of a frame of a ZCompactMsg, reading its data in place.
+     * Valid until the message is modified.
+     */
+    public static final class FrameView
+    {
+        private final ZCompactMsg msg;
+        private int index;
+
+        private FrameView(ZCompactMsg msg, int index)
+        {
+            this.msg = msg;
+            this.index = index;
+        }
+
+        /**
+         * @return position of the frame in the message
+         */
+        public int index()
+        {
+            return index;
+        }
+
+        /**
+         * @return byte size of the frame
+         */
+        public int size()
+        {
+            return msg.lengths[msg.head + index];
+        }
+
+        /**
+         * @return True if the frame is not the last of the message
+         */
+        public boolean hasMore()
+        {
+            return index + 1 < msg.count;
+        }
+
+        /**
+         * @param i
+         *            position of the byte in the frame
+         * @return the byte
+         */
+        public byte byteAt(int i)
+        {
+            if (i < 0 || i >= size())
+                throw new IndexOutOfBoundsException();
+            return msg.get(index, i);
+        }
+
+        /**
+         * @return a copy of the data of the frame
+         */
+        public byte[] getData()
+        {
+            return msg.copyOf(index);
+        }
+
+        /**
+         * Copies the data of the frame into an array.
+         * @param dst
+         *            array with room for size() bytes after dstOffset
+         * @param dstOffset
+         *            where to copy the first byte
+         */
+        public void copyTo(byte[] dst, int dstOffset)
+        {
+            msg.copyTo(index, dst, dstOffset);
+        }
+
+        /**
+         * @return read-only view of the data of the frame, from its position
+         *         to its limit
+         */
+        public ByteBuffer asBuffer()
+        {
+            ByteBuffer view = msg.buffer.asReadOnlyBuffer();
+            int offset = msg.offsets[msg.head + index];
+            view.limit(offset + size());
+            view.position(offset);
+            return view;
+        }
+
+        /**
+         * @return a new ZFrame holding a copy of the frame
+         */
+        public ZFrame toFrame()
+        {
+            return new ZFrame(getData());
+        }
+
+        /**
+         * @param str
+         *            String to compare with frame data
+         * @return True if frame data matches given string
+         */
+        public boolean streq(String str)
+        {
+            return contentEquals(str.getBytes(ENCODING));
+        }
+
+        /**
+         * @param data
+         *            bytes to compare with frame data
+         * @return True if frame data matches given bytes
+         */
+        public boolean contentEquals(byte[] data)
+        {
+            if (data.length != size())
+                return false;
+            for (int i = 0; i < data.length; i++) {
+                if (msg.get(index, i) != data[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean contentEquals(FrameView other)
+        {
+            int size = size();
+            if (size != other.size())
+                return false;
+            for (int i = 0; i < size; i++) {
+                if (msg.get(index, i) != other.msg.get(other.index, i))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return hash of the data, the same as Arrays.hashCode(getData())
+         */
+        @Override
+        public int hashCode()
+        {
+            int hash = 1;
+            int size = size();
+            for (int i = 0; i < size; i++)
+                hash = 31 * hash + msg.get(index, i);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            return contentEquals((FrameView) o);
+        }
+
+        /**
+         * @return the frame data as text, or hex-encoded if it contains any
+         *         non-printable ASCII characters, as ZFrame.toString() does
+         */
+        @Override
+        public String toString()
+        {
+            return new ZFrame(getData()).toString();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package org.zeromq;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Compresses the large frames of messages on the way out, and decompresses them on the way in, for links where
+ * bandwidth is scarcer than CPU. Frames of at least a threshold size are compressed with deflate, or another codec,
+ * and kept as they are if that does not make them smaller.
+ *
+ * When any frame is compressed, a header frame is added at the end of the message, naming the codec and which frames
+ * it compressed. Being last, it leaves the routing envelope at the front of the message untouched, and frames are
+ * counted back from it, so that identities added by a ROUTER socket on the way do not shift them. Messages without
+ * a header, such as those of peers that do not compress, are received as they are, and so are messages whose last
+ * frame names a codec this side does not know. A header naming a known codec is trusted, though: if a frame it names
+ * does not decompress, the message is rejected rather than passed on half decoded.
+ *
+ * <pre>
+ * ZCompression compression = new ZCompression();
+ * compression.send(msg, socket, true);
+ * ZMsg received = compression.recvMsg(socket, 0);
+ * </pre>
+ *
+ * Codecs reuse their compressor state and buffers, so a ZCompression is not thread-safe: use one per socket, like
+ * the socket itself, and destroy it once done to free the native memory of zlib.
+ */
+public class ZCompression
+{
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final byte MAGIC_0 = 'Z';
+    private static final byte MAGIC_1 = 'C';
+    // Magic, codec id and frame count, followed by one bit per frame
+    private static final int HEADER_SIZE = 7;
+
+    /**
+     * Compression algorithm. An instance is used by one thread at a time and
+     * may keep state between calls.
+     */
+    public interface Codec
+    {
+        /**
+         * @return identifier of the codec in message headers, between 1 and
+         *         255
+         */
+        int id();
+
+        /**
+         * @param data
+         *            frame data
+         * @return the compressed data, or null if it would not be smaller
+         */
+        byte[] compress(byte[] data);
+
+        /**
+         * @param data
+         *            data returned by compress()
+         * @return the original frame data
+         * @throws IllegalStateException
+         *             if data is corrupt
+         */
+        byte[] decompress(byte[] data);
+
+        /**
+         * Releases resources of the codec.
+         */
+        void end();
+    }
+
+    /**
+     * @return a deflate codec with the default compression level
+     */
+    public static Codec deflate()
+    {
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level
+     *            compression level, from Deflater.BEST_SPEED to
+     *            Deflater.BEST_COMPRESSION
+     * @return a deflate codec
+     */
+    public static Codec deflate(int level)
+    {
+        return new DeflateCodec(level);
+    }
+
+    private final int threshold;
+    private final Codec[] codecs;
+    // Codecs by id, to decode headers
+    private final Codec[] decoders = new Codec[256];
+
+    /**
+     * Compresses frames of DEFAULT_THRESHOLD bytes or more with deflate.
+     */
+    public ZCompression()
+    {
+        this(DEFAULT_THRESHOLD, deflate());
+    }
+
+    /**
+     * @param threshold
+     *            size in bytes from which frames are compressed
+     * @param codecs
+     *            codecs to decode received messages with; the first one also
+     *            encodes the messages sent
+     */
+    public ZCompression(int threshold, Codec... codecs)
+    {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold must not be negative");
+        if (codecs.length == 0)
+            throw new IllegalArgumentException("At least one codec is needed");
+        this.threshold = threshold;
+        this.codecs = codecs.clone();
+        for (Codec codec : codecs) {
+            if (codec.id() < 1 || codec.id() > 255)
+                throw new IllegalArgumentException("Codec id must be between 1 and 255: " + codec.id());
+            if (decoders[codec.id()] != null)
+                throw new IllegalArgumentException("Duplicate codec id " + codec.id());
+            decoders[codec.id()] = codec;
+        }
+    }
+
+    /**
+     * Releases the codecs.
+     */
+    public void destroy()
+    {
+        for (Codec codec : codecs)
+            codec.end();
+    }
+
+    /**
+     * Send message to 0MQ socket, compressing its large frames.
+     * @param msg
+     *            message to send
+     * @param socket
+     *            0MQ socket to send message on.
+     * @param destroy
+     *            true to destroy the message once sent, false to leave it
+     *            uncompressed for reuse
+     */
+    public void send(ZMsg msg, Socket socket, boolean destroy)
+    {
+        // Frames of a duplicate share their data until compressed, so that
+        // the message is left as it was
+        ZMsg wire = destroy ? msg : msg.duplicate();
+        encode(wire);
+        wire.send(socket, true);
+    }
+
+    /**
+     * Receives message from socket, decompressing its frames.
+     * @param socket
+     * @param flags
+     *            see ZMQ constants
+     * @return the message as it was before compression, or null if there was
+     *         no input waiting or if the recv was interrupted
+     * @throws IllegalStateException
+     *             if the message was received but does not decompress, see
+     *             decode()
+     */
+    public ZMsg recvMsg(Socket socket, int flags)
+    {
+        ZMsg msg = ZMsg.recvMsg(socket, flags);
+        return msg == null ? null : decode(msg);
+    }
+
+    /**
+     * Compresses the frames of a message that are worth it, and adds a header
+     * frame if any was.
+     * @param msg
+     *            message to compress in place
+     * @return msg
+     */
+    public ZMsg encode(ZMsg msg)
+    {
+        Codec codec = codecs[0];
+        int count = msg.size();
+        byte[] header = null;
+        // Frame i is counted back from the end, as in the header
+        Iterator<ZFrame> frames = msg.descendingIterator();
+        for (int i = 0; i < count; i++) {
+            ZFrame frame = frames.next();
+            if (frame.size() < threshold || frame.size() == 0)
+                continue;
+            byte[] compressed = codec.compress(frame.getData());
+            if (compressed == null)
+                continue;
+            frame.reset(compressed);
+            if (header == null)
+                header = newHeader(codec.id(), count);
+            header[HEADER_SIZE + i / 8] |= 1 << i % 8;
+        }
+        if (header != null)
+            msg.addLast(header);
+        return msg;
+    }
+
+    /**
+     * Decompresses the frames of a message named by its header frame, which is
+     * removed. Messages without a header are left as they are, as are messages
+     * whose header names an unknown codec, since their last frame is then
+     * application data.
+     * @param msg
+     *            message to decompress in place
+     * @return msg
+     * @throws IllegalStateException
+     *             if the header names a known codec but a frame it names does
+     *             not decompress; the message is then left as it was
+     */
+    public ZMsg decode(ZMsg msg)
+    {
+        ZFrame last = msg.peekLast();
+        if (last == null || !isHeader(last, msg.size() - 1))
+            return msg;
+        byte[] header = last.getData();
+        Codec codec = decoders[header[2] & 0xff];
+        if (codec == null)
+            return msg;
+        // Decompress everything before changing anything
+        int count = count(header);
+        byte[][] decompressed = new byte[count][];
+        Iterator<ZFrame> frames = msg.descendingIterator();
+        frames.next();
+        for (int i = 0; i < count; i++) {
+            ZFrame frame = frames.next();
+            if ((header[HEADER_SIZE + i / 8] & 1 << i % 8) != 0)
+                decompressed[i] = codec.decompress(frame.getData());
+        }
+        msg.pollLast();
+        frames = msg.descendingIterator();
+        for (int i = 0; i < count; i++) {
+            ZFrame frame = frames.next();
+            if (decompressed[i] != null)
+                frame.reset(decompressed[i]);
+        }
+        return msg;
+    }
+
+    private static byte[] newHeader(int codec, int count)
+    {
+        byte[] header = new byte[HEADER_SIZE + (count + 7) / 8];
+        header[0] = MAGIC_0;
+        header[1] = MAGIC_1;
+        header[2] = (byte) codec;
+        header[3] = (byte) (count >>> 24);
+        header[4] = (byte) (count >>> 16);
+        header[5] = (byte) (count >>> 8);
+        header[6] = (byte) count;
+        return header;
+    }
+
+    private static int count(byte[] header)
+    {
+        return (header[3] & 0xff) << 24 | (header[4] & 0xff) << 16 | (header[5] & 0xff) << 8 | header[6] & 0xff;
+    }
+
+    // A header covers at most the frames before it, which may be preceded by
+    // an envelope added on the way
+    private static boolean isHeader(ZFrame frame, int frames)
+    {
+        if (frame.size() < HEADER_SIZE + 1 || frame.getInt(0) >>> 16 != (MAGIC_0 << 8 | MAGIC_1))
+            return false;
+        int count = frame.getInt(3);
+        if (count <= 0 || count > frames || frame.size() != HEADER_SIZE + (count + 7) / 8)
+            return false;
+        // Some frame is compressed, and the bits past the last frame are clear
+        byte[] header = frame.getData();
+        int bits = 0;
+        for (int i = HEADER_SIZE; i < header.length; i++)
+            bits |= header[i];
+        int unused = (header.length - HEADER_SIZE) * 8 - count;
+        return bits != 0 && (header[header.length - 1] & 0xff) >>> (8 - unused) == 0;
+    }
+
+    /**
+     * Deflate without zlib wrapper, the original size of the frame written
+     * first, on 4 bytes.
+     */
+    private static final class DeflateCodec implements Codec
+    {
+        // Deflate never compresses better than this, so larger original sizes
+        // can only come from corrupt or malicious frames
+        private static final int MAX_RATIO = 1032;
+
+        private final Deflater deflater;
+        private final Inflater inflater = new Inflater(true);
+        private byte[] scratch = new byte[0];
+
+        private DeflateCodec(int level)
+        {
+            deflater = new Deflater(level, true);
+        }
+
+        @Override
+        public int id()
+        {
+            return 1;
+        }
+
+        @Override
+        public byte[] compress(byte[] data)
+        {
+            if (scratch.length < data.length)
+                scratch = new byte[data.length];
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            int size = 4;
+            while (!deflater.finished()) {
+                if (size >= data.length)
+                    return null;
+                size += deflater.deflate(scratch, size, data.length - size);
+            }
+            if (size >= data.length)
+                return null;
+            scratch[0] = (byte) (data.length >>> 24);
+            scratch[1] = (byte) (data.length >>> 16);
+            scratch[2] = (byte) (data.length >>> 8);
+            scratch[3] = (byte) data.length;
+            return Arrays.copyOf(scratch, size);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data)
+        {
+            if (data.length < 4)
+                throw new IllegalStateException("Compressed frame too short");
+            int size = (data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | data[3] & 0xff;
+            if (size < 0 || size > (long) (data.length - 4) * MAX_RATIO + 64)
+                throw new IllegalStateException("Invalid size of compressed frame: " + size);
+            byte[] result = new byte[size];
+            inflater.reset();
+            inflater.setInput(data, 4, data.length - 4);
+            try {
+                int inflated = 0;
+                while (inflated < size) {
+                    int n = inflater.inflate(result, inflated, size - inflated);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                        throw new IllegalStateException("Compressed frame truncated");
+                    inflated += n;
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt compressed frame", e);
+            }
+            return result;
+        }
+
+        @Override
+        public void end()
+        {
+            deflater.end();
+            inflater.end();
+        }
+    }
+}
@@ -1,50 +1,240 @@
 package org.zeromq;
 
-import java.util.concurrent.BlockingQueue;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Dispatcher for ZeroMQ Sockets.
  *
  * Warning:
- * The Dispatcher uses a busy spin loop when waiting on events.
+ * By default the Dispatcher uses a busy spin loop when waiting on events.
  * This is ideal for low latency applications but not in all situations.
  * It has the side effect of consuming 100% of a CPU when waiting for events.
+ * Register a socket with another IdleStrategy to trade some latency for CPU.
  *
  * With this dispatcher, you can register ONE handler per socket 
  * and get a Sender for sending ZMsg.
+ *
+ * Unless a socket is registered with its own thread pool, handlers run on a
+ * pool shared by all sockets, sized to the number of processors. Messages of
+ * one socket are still handled one batch at a time, in order, unless the
+ * socket is registered with a KeyExtractor and several lanes: messages are
+ * then handled in order per key, and concurrently across lanes.
+ *
+ * Inbound and outbound queues are bounded in messages and bytes. When the
+ * inbound queue of a socket is full the dispatcher stops reading it by
+ * default, so that the socket's RCVHWM pushes back on the peers; see
+ * setInboundLimits() and OverflowPolicy for the alternatives.
+ *
+ * On JDKs with virtual threads, registerVirtualHandler() runs the handler of
+ * a socket on virtual threads, for handlers that block on I/O. The socket
+ * itself stays with its platform dispatcher thread.
  */
 public class ZDispatcher {
     private ConcurrentMap<ZMQ.Socket, SocketDispatcher> dispatchers = new ConcurrentHashMap<ZMQ.Socket, SocketDispatcher>();
     private final ExecutorService dispatcherExecutor;
+    private final ExecutorService handlerExecutor;
+    private volatile int inboundMaxMessages = DEFAULT_INBOUND_MESSAGES;
+    private volatile long inboundMaxBytes = Long.MAX_VALUE;
+    private volatile OverflowPolicy inboundPolicy = OverflowPolicy.STOP_READING;
+    private volatile boolean unbatching;
+
+    private ExecutorService virtualExecutor;
+    private volatile boolean metricsEnabled;
+
+    public static final int DEFAULT_INBOUND_MESSAGES = 4096;
+    // Lanes of a socket handled on virtual threads with a key, as many keys
+    // may then block at the same time
+    private static final int VIRTUAL_LANES = 1024;
 
     public ZDispatcher() {
-        this.dispatcherExecutor = Executors.newCachedThreadPool();
+        this(Executors.newCachedThreadPool());
     }
 
     public ZDispatcher(ExecutorService dispatcherExecutor) {
+        this(dispatcherExecutor, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param dispatcherExecutor runs one dispatcher loop per registered socket
+     * @param handlerExecutor runs the handlers of all sockets registered without a thread pool of their own
+     */
+    public ZDispatcher(ExecutorService dispatcherExecutor, ExecutorService handlerExecutor) {
         this.dispatcherExecutor = dispatcherExecutor;
+        this.handlerExecutor = handlerExecutor;
     }
 
     public void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender) {
-        registerHandler(socket, messageHandler, sender, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        registerHandler(socket, messageHandler, sender, IdleStrategy.busySpin());
     }
 
     public void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, ExecutorService threadpool) {
-        SocketDispatcher socketDispatcher = new SocketDispatcher(socket, messageHandler, sender, threadpool);
+        registerHandler(socket, messageHandler, sender, threadpool, IdleStrategy.busySpin());
+    }
+
+    public void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, IdleStrategy idleStrategy) {
+        registerHandler(socket, messageHandler, sender, handlerExecutor, false, false, false, null, 1, idleStrategy);
+    }
+
+    /**
+     * Registers a handler that runs on its own thread pool, which is shut down with the handler.
+     */
+    public void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, ExecutorService threadpool, IdleStrategy idleStrategy) {
+        registerHandler(socket, messageHandler, sender, threadpool, true, false, false, null, 1, idleStrategy);
+    }
+
+    public void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, KeyExtractor keyExtractor, int lanes) {
+        registerHandler(socket, messageHandler, sender, keyExtractor, lanes, IdleStrategy.busySpin());
+    }
+
+    /**
+     * Registers a handler that may run concurrently on several lanes. Messages are spread over the lanes by key, and
+     * each lane handles its messages in order, so messages with the same key are handled in the order they were
+     * received. The handler must be thread-safe when there is more than one lane.
+     *
+     * @param keyExtractor gives the ordering key of each message, e.g. FIRST_FRAME for the identity of a ROUTER peer
+     * @param lanes number of lanes that may run concurrently
+     */
+    public void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, KeyExtractor keyExtractor, int lanes, IdleStrategy idleStrategy) {
+        if (keyExtractor == null) {
+            throw new IllegalArgumentException("keyExtractor is null");
+        }
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("lanes must be positive");
+        }
+        registerHandler(socket, messageHandler, sender, handlerExecutor, false, false, false, keyExtractor, lanes, idleStrategy);
+    }
+
+    public void registerVirtualHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, KeyExtractor keyExtractor) {
+        registerVirtualHandler(socket, messageHandler, sender, keyExtractor, IdleStrategy.busySpin());
+    }
+
+    /**
+     * Registers a handler that runs on virtual threads, so that handlers blocking on I/O are cheap to run
+     * concurrently. The handler must be thread-safe.
+     *
+     * @param keyExtractor gives the ordering key of each message, messages with the same key are then handled in
+     *            order on one virtual thread at a time; or null to handle each message on its own virtual thread, in
+     *            no particular order
+     * @throws UnsupportedOperationException if the JDK does not support virtual threads
+     */
+    public void registerVirtualHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, KeyExtractor keyExtractor, IdleStrategy idleStrategy) {
+        ExecutorService executor = virtualExecutor();
+        if (keyExtractor == null) {
+            registerHandler(socket, messageHandler, sender, executor, false, true, true, null, 1, idleStrategy);
+        } else {
+            // No more lanes than the limits leave room for
+            int lanes = (int) Math.min(VIRTUAL_LANES, Math.min(inboundMaxMessages, inboundMaxBytes));
+            registerHandler(socket, messageHandler, sender, executor, false, true, false, keyExtractor, lanes, idleStrategy);
+        }
+    }
+
+    private synchronized ExecutorService virtualExecutor() {
+        if (virtualExecutor == null) {
+            virtualExecutor = VirtualThreads.newPerTaskExecutor("zdispatcher-handler-");
+        }
+        return virtualExecutor;
+    }
+
+    private void registerHandler(ZMQ.Socket socket, ZMessageHandler messageHandler, ZSender sender, ExecutorService threadpool, boolean ownsThreadpool, boolean virtual, boolean perMessage, KeyExtractor keyExtractor, int lanes, IdleStrategy idleStrategy) {
+        int inboundMaxMessages = this.inboundMaxMessages;
+        long inboundMaxBytes = this.inboundMaxBytes;
+        if (lanes > inboundMaxMessages || lanes > inboundMaxBytes) {
+            throw new IllegalArgumentException("Inbound limits must allow a message and a byte per lane");
+        }
+        if (!idleStrategy.inUse.compareAndSet(false, true)) {
+            throw new IllegalArgumentException("This idle strategy is already used by another socket");
+        }
+        SocketDispatcher socketDispatcher;
+        try {
+            socketDispatcher = new SocketDispatcher(socket, messageHandler, sender, threadpool, ownsThreadpool, virtual, perMessage, keyExtractor, lanes, idleStrategy,
+                    inboundMaxMessages, inboundMaxBytes, inboundPolicy, unbatching);
+        } catch (RuntimeException e) {
+            idleStrategy.inUse.set(false);
+            throw e;
+        }
         if (dispatchers.putIfAbsent(socket, socketDispatcher) != null) {
+            idleStrategy.inUse.set(false);
             throw new IllegalArgumentException("This socket already have a message handler");
         }
+        // Only a registered dispatcher may take over the sender
+        if (metricsEnabled) {
+            socketDispatcher.metrics = new ZDispatcherMetrics(this, socket, sender);
+        }
+        socketDispatcher.attach();
         socketDispatcher.start();
         dispatcherExecutor.execute(socketDispatcher);
     }
 
+    /**
+     * Sets how many received messages may wait for the handler of each socket registered from now on, and what
+     * happens to the socket once that many are waiting. With several lanes, the limits are split evenly between them,
+     * so they must be at least the number of lanes. Messages handed to a handler on its own virtual thread count
+     * against the limits until the handler returns.
+     *
+     * @param maxMessages limit in messages
+     * @param maxBytes limit in bytes of message content, a single message may exceed it
+     * @param policy what to do with a message received when the limits are reached
+     */
+    public void setInboundLimits(int maxMessages, long maxBytes, OverflowPolicy policy) {
+        if (maxMessages <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy is null");
+        }
+        this.inboundMaxMessages = maxMessages;
+        this.inboundMaxBytes = maxBytes;
+        this.inboundPolicy = policy;
+    }
+
+    /**
+     * Splits batches sent by a ZMsgBatcher into their messages on the sockets registered from now on, so that
+     * handlers see the messages that were batched. Other messages reach the handlers unchanged.
+     *
+     * @param unbatching true to split batches
+     */
+    public void setUnbatching(boolean unbatching) {
+        this.unbatching = unbatching;
+    }
+
+    /**
+     * Collects metrics for the sockets registered from now on.
+     */
+    public void enableMetrics() {
+        metricsEnabled = true;
+    }
+
+    /**
+     * @return the metrics of a socket, or null if it was registered before enableMetrics()
+     */
+    public ZDispatcherMetrics getMetrics(ZMQ.Socket socket) {
+        SocketDispatcher socketDispatcher = dispatchers.get(socket);
+        if (socketDispatcher == null) {
+            throw new IllegalArgumentException("This socket doesn't have a message handler");
+        }
+        return socketDispatcher.metrics;
+    }
+
+    /**
+     * @return counters of the messages received on a socket and not handled yet
+     */
+    public QueueStats getInboundStats(ZMQ.Socket socket) {
+        SocketDispatcher socketDispatcher = dispatchers.get(socket);
+        if (socketDispatcher == null) {
+            throw new IllegalArgumentException("This socket doesn't have a message handler");
+        }
+        return socketDispatcher.inboundStats();
+    }
+
     public void unregisterHandler(ZMQ.Socket socket) {
         SocketDispatcher removedDispatcher = dispatchers.remove(socket);
         if (removedDispatcher == null) {
@@ -59,6 +249,12 @@ public class ZDispatcher {
             socketDispatcher.shutdown();
         }
         dispatchers.clear();
+        handlerExecutor.shutdown();
+        synchronized (this) {
+            if (virtualExecutor != null) {
+                virtualExecutor.shutdown();
+            }
+        }
     }
 
     public interface ZMessageHandler {
@@ -67,11 +263,523 @@ public class ZDispatcher {
 
     }
 
+    /**
+     * Gives the ordering key of a message. Messages whose keys have the same hash are handled in order.
+     */
+    public interface KeyExtractor {
+
+        public int keyOf(ZMsg msg);
+
+    }
+
+    /**
+     * Keys messages by the content of their first frame, such as the identity of the peer on a ROUTER socket or the
+     * topic on a SUB socket.
+     */
+    public static final KeyExtractor FIRST_FRAME = new KeyExtractor() {
+        @Override
+        public int keyOf(ZMsg msg) {
+            ZFrame first = msg.peekFirst();
+            return first == null ? 0 : Arrays.hashCode(first.getData());
+        }
+    };
+
     public final static class ZSender {
-        private final BlockingQueue<ZMsg> out = new LinkedBlockingQueue<ZMsg>();
+        public static final int DEFAULT_CAPACITY = 16384;
+
+        private final MessageQueue out;
+        private final OverflowPolicy policy;
+        private volatile IdleStrategy idleStrategy;
+        private volatile boolean closed;
 
+        /**
+         * Creates a sender for DEFAULT_CAPACITY messages, whose send() waits for room rather than drop a message.
+         */
+        public ZSender() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        /**
+         * Creates a sender whose send() waits for room rather than drop a message. Use the three-argument constructor
+         * to drop messages instead.
+         *
+         * @param capacity how many messages may wait to be sent
+         */
+        public ZSender(int capacity) {
+            this(capacity, Long.MAX_VALUE, OverflowPolicy.BLOCK);
+        }
+
+        /**
+         * @param maxMessages how many messages may wait to be sent
+         * @param maxBytes how many bytes of message content may wait to be sent, a single message may exceed it
+         * @param policy what send() does when the limits are reached, STOP_READING is not supported
+         */
+        public ZSender(int maxMessages, long maxBytes, OverflowPolicy policy) {
+            if (maxMessages <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("Limits must be positive");
+            }
+            if (policy == null || policy == OverflowPolicy.STOP_READING) {
+                throw new IllegalArgumentException("Unsupported policy for a sender: " + policy);
+            }
+            this.out = new MessageQueue(maxMessages, maxBytes);
+            this.policy = policy;
+        }
+
+        /**
+         * Queues a message to be sent by the dispatcher thread. Safe to call from any thread.
+         *
+         * @return false if the message was dropped, because the limits were reached with the DROP_NEWEST policy or
+         *         because the dispatcher was shut down
+         */
         public final boolean send(ZMsg msg) {
-            return out.add(msg);
+            boolean added = !closed && out.offer(msg);
+            if (!added && !closed) {
+                switch (policy) {
+                case DROP_OLDEST:
+                    added = out.offerEvicting(msg);
+                    break;
+                case BLOCK:
+                    added = offerBlocking(msg);
+                    break;
+                default:
+                    out.dropped.incrementAndGet();
+                    break;
+                }
+            }
+            IdleStrategy idleStrategy = this.idleStrategy;
+            if (idleStrategy != null) {
+                idleStrategy.wakeup();
+            }
+            return added;
+        }
+
+        private boolean offerBlocking(ZMsg msg) {
+            long parkNanos = MIN_PARK_NANOS;
+            while (!out.offer(msg)) {
+                if (closed) {
+                    return false;
+                }
+                // Make sure the dispatcher is draining while we wait
+                IdleStrategy idleStrategy = this.idleStrategy;
+                if (idleStrategy != null) {
+                    idleStrategy.wakeup();
+                }
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+            }
+            return true;
+        }
+
+        /**
+         * @return counters of the messages waiting to be sent
+         */
+        public QueueStats getStats() {
+            return out.stats();
+        }
+    }
+
+    /**
+     * What happens to a message that does not fit in a full queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room. A sender blocks the calling thread; on the inbound side the dispatcher holds the message
+         * and stops reading the socket until the handler makes room, while still sending, as with STOP_READING.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest queued messages to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the message that does not fit.
+         */
+        DROP_NEWEST,
+        /**
+         * Inbound only: leave messages in the socket until there is room, while still sending. The socket's RCVHWM
+         * then does the flow control.
+         */
+        STOP_READING
+    }
+
+    /**
+     * Counters of a message queue, taken at one point in time.
+     */
+    public static final class QueueStats {
+        private final long depth;
+        private final long bytes;
+        private final long dropped;
+
+        QueueStats(long depth, long bytes, long dropped) {
+            this.depth = depth;
+            this.bytes = bytes;
+            this.dropped = dropped;
+        }
+
+        /**
+         * @return number of queued messages
+         */
+        public long getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return bytes of content in queued messages
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return number of messages dropped by the DROP_OLDEST and DROP_NEWEST policies since the queue was created
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("depth=%d bytes=%d dropped=%d", depth, bytes, dropped);
+        }
+    }
+
+    private static final long MIN_PARK_NANOS = 1000;
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    // Ring of messages bounded in count and bytes. Only the holder of the
+    // consumer flag takes batches out, while producers may evict the oldest
+    // message at any time to make room.
+    private static final class MessageQueue {
+        private final MpscRing<ZMsg> ring;
+        private final int maxMessages;
+        private final long maxBytes;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicBoolean consumer = new AtomicBoolean(false);
+        // Messages taken out for a handler task that has not finished yet,
+        // still counted against the limits with their bytes
+        private final AtomicInteger held = new AtomicInteger();
+
+        private MessageQueue(int maxMessages, long maxBytes) {
+            this.ring = new MpscRing<ZMsg>(maxMessages);
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+        }
+
+        private boolean offer(ZMsg msg) {
+            long size = msg.contentSize();
+            long total = bytes.addAndGet(size);
+            // A message larger than the limit still goes through an empty
+            // queue. Racing producers may pass the count limit, but never the
+            // ring's capacity, which is that limit rounded up to a power of two
+            if ((total > maxBytes && total != size) || held.get() + ring.size() >= maxMessages || !ring.offer(msg)) {
+                bytes.addAndGet(-size);
+                return false;
+            }
+            return true;
+        }
+
+        // Consumer only
+        private int drain(ZMsg[] buffer) {
+            int count = ring.drain(buffer);
+            long size = 0;
+            for (int i = 0; i < count; i++) {
+                size += buffer[i].contentSize();
+            }
+            bytes.addAndGet(-size);
+            return count;
+        }
+
+        // Consumer only
+        private ZMsg poll() {
+            ZMsg msg = ring.poll();
+            if (msg != null) {
+                bytes.addAndGet(-msg.contentSize());
+            }
+            return msg;
+        }
+
+        // Consumer only, takes a message out until release() is called
+        private ZMsg hold() {
+            ZMsg msg = ring.poll();
+            if (msg != null) {
+                held.incrementAndGet();
+            }
+            return msg;
+        }
+
+        // Any thread, once the handler of a held message has finished
+        private void release(ZMsg msg) {
+            bytes.addAndGet(-msg.contentSize());
+            held.decrementAndGet();
+        }
+
+        // Any thread, even while a consumer runs
+        private boolean evictOldest() {
+            ZMsg msg = ring.poll();
+            if (msg == null) {
+                return false;
+            }
+            bytes.addAndGet(-msg.contentSize());
+            dropped.incrementAndGet();
+            return true;
+        }
+
+        // Drops old messages until msg fits, returns false if none is left to
+        // drop as the room is taken by messages being handled
+        private boolean offerEvicting(ZMsg msg) {
+            while (!offer(msg)) {
+                if (!evictOldest()) {
+                    if (held.get() > 0 && ring.size() == 0) {
+                        return false;
+                    }
+                    // Room is held by messages still being queued
+                    Thread.yield();
+                }
+            }
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return ring.isEmpty();
+        }
+
+        private QueueStats stats() {
+            return new QueueStats(ring.size() + held.get(), bytes.get(), dropped.get());
+        }
+    }
+
+    /**
+     * Decides what a socket dispatcher thread does after a pass over its socket, in particular when the pass found
+     * nothing to do. Each registered socket needs its own instance.
+     */
+    public abstract static class IdleStrategy {
+        private final AtomicBoolean inUse = new AtomicBoolean(false);
+
+        /**
+         * Called on the dispatcher thread before its first pass.
+         *
+         * @param socket the socket being dispatched
+         */
+        public void start(ZMQ.Socket socket) {
+        }
+
+        /**
+         * Called on the dispatcher thread after each pass.
+         *
+         * @param workCount number of messages received, handed to the handler or sent during the pass
+         */
+        public abstract void idle(int workCount);
+
+        /**
+         * Called on the dispatcher thread after each pass instead of idle(int).
+         *
+         * @param workCount number of messages received, handed to the handler or sent during the pass
+         * @param paused true while the socket is not read because the queue for the handler is full; the dispatcher
+         *            is woken once there is room, so a strategy waiting on the socket must not wait on its input then
+         */
+        public void idle(int workCount, boolean paused) {
+            idle(workCount);
+        }
+
+        /**
+         * Called from any thread when the dispatcher has work that does not come from its socket: a message to send,
+         * messages waiting for the handler, or a shutdown.
+         */
+        public void wakeup() {
+        }
+
+        /**
+         * Called on the dispatcher thread once it stops.
+         */
+        public void stop() {
+        }
+
+        /**
+         * Never waits. Lowest latency, but burns a core per socket.
+         */
+        public static IdleStrategy busySpin() {
+            return new IdleStrategy() {
+                @Override
+                public void idle(int workCount) {
+                }
+            };
+        }
+
+        /**
+         * Yields the processor after each idle pass.
+         */
+        public static IdleStrategy yielding() {
+            return new IdleStrategy() {
+                @Override
+                public void idle(int workCount) {
+                    if (workCount == 0) {
+                        Thread.yield();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Spins, then yields, then parks for exponentially longer periods while idle. Messages to send wake the
+         * dispatcher at once, but incoming messages may wait up to maxParkNanos.
+         *
+         * @param minParkNanos first park period
+         * @param maxParkNanos longest park period
+         */
+        public static IdleStrategy backoff(long minParkNanos, long maxParkNanos) {
+            if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+                throw new IllegalArgumentException("Park periods must satisfy 0 < minParkNanos <= maxParkNanos");
+            }
+            return new BackoffIdleStrategy(minParkNanos, maxParkNanos);
+        }
+
+        /**
+         * Blocks in zmq_poll on the socket and on an inproc wakeup socket, so that an idle dispatcher uses no CPU yet
+         * reacts at once to incoming messages and to messages to send.
+         *
+         * @param ctx context used to create the wakeup sockets
+         * @param maxWaitMillis longest time to block, or -1 to block until something happens
+         */
+        public static IdleStrategy polling(ZContext ctx, long maxWaitMillis) {
+            if (ctx == null) {
+                throw new IllegalArgumentException("ctx is null");
+            }
+            if (maxWaitMillis < -1) {
+                throw new IllegalArgumentException("maxWaitMillis must be -1 or more");
+            }
+            return new PollingIdleStrategy(ctx, maxWaitMillis);
+        }
+    }
+
+    private static final class BackoffIdleStrategy extends IdleStrategy {
+        private static final int SPINS = 100;
+        private static final int YIELDS = 100;
+        private final long minParkNanos;
+        private final long maxParkNanos;
+        private volatile Thread thread;
+        private int idles;
+        private long parkNanos;
+
+        private BackoffIdleStrategy(long minParkNanos, long maxParkNanos) {
+            this.minParkNanos = minParkNanos;
+            this.maxParkNanos = maxParkNanos;
+            this.parkNanos = minParkNanos;
+        }
+
+        @Override
+        public void start(ZMQ.Socket socket) {
+            thread = Thread.currentThread();
+        }
+
+        @Override
+        public void idle(int workCount) {
+            if (workCount > 0) {
+                idles = 0;
+                parkNanos = minParkNanos;
+            } else if (idles < SPINS) {
+                idles++;
+            } else if (idles < SPINS + YIELDS) {
+                idles++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+            }
+        }
+
+        @Override
+        public void wakeup() {
+            Thread thread = this.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void stop() {
+            thread = null;
+        }
+    }
+
+    private static final class PollingIdleStrategy extends IdleStrategy {
+        private static final AtomicInteger ids = new AtomicInteger();
+        private static final byte[] WAKEUP = new byte[0];
+        private final ZContext ctx;
+        private final long maxWaitMillis;
+        private final AtomicBoolean signalled = new AtomicBoolean(false); // True while a wakeup is in flight
+        private ZMQ.Poller poller;
+        private ZMQ.Poller wakeupPoller; // Polls the wakeup socket alone while the socket is paused
+        private ZMQ.Socket wakeup; // Read by the dispatcher thread
+        private ZMQ.Socket signal; // Written by any thread, guarded by this
+
+        private PollingIdleStrategy(ZContext ctx, long maxWaitMillis) {
+            this.ctx = ctx;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @Override
+        public void start(ZMQ.Socket socket) {
+            String endpoint = String.format("inproc://zdispatcher-wakeup-%d", ids.incrementAndGet());
+            wakeup = ctx.createSocket(ZMQ.PAIR);
+            wakeup.bind(endpoint);
+            ZMQ.Socket signal = ctx.createSocket(ZMQ.PAIR);
+            signal.connect(endpoint);
+            synchronized (this) {
+                this.signal = signal;
+            }
+            poller = new ZMQ.Poller(2);
+            poller.register(socket, ZMQ.Poller.POLLIN);
+            poller.register(wakeup, ZMQ.Poller.POLLIN);
+            wakeupPoller = new ZMQ.Poller(1);
+            wakeupPoller.register(wakeup, ZMQ.Poller.POLLIN);
+        }
+
+        @Override
+        public void idle(int workCount) {
+            idle(workCount, false);
+        }
+
+        @Override
+        public void idle(int workCount, boolean paused) {
+            if (workCount > 0) {
+                return;
+            }
+            // A paused socket keeps its input, zmq_poll would return at once
+            boolean woken;
+            if (paused) {
+                wakeupPoller.poll(maxWaitMillis);
+                woken = wakeupPoller.pollin(0);
+            } else {
+                poller.poll(maxWaitMillis);
+                woken = poller.pollin(1);
+            }
+            if (woken) {
+                while (wakeup.recv(ZMQ.DONTWAIT) != null)
+                    ;
+                // Work queued from now on sends a fresh wakeup
+                signalled.set(false);
+            }
+        }
+
+        @Override
+        public void wakeup() {
+            if (signalled.compareAndSet(false, true)) {
+                synchronized (this) {
+                    if (signal != null) {
+                        signal.send(WAKEUP, 0);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            synchronized (this) {
+                ctx.destroySocket(signal);
+                signal = null;
+            }
+            ctx.destroySocket(wakeup);
         }
     }
 
@@ -82,30 +790,70 @@ public class ZDispatcher {
         private final ZMessageHandler handler;
         private final ZSender sender;
         private final ExecutorService threadpool;
-        private final BlockingQueue<ZMsg> in = new LinkedBlockingQueue<ZMsg>();
+        private final boolean ownsThreadpool;
+        private final boolean virtual; // Threadpool starts a virtual thread per task
+        private final boolean perMessage; // Each message runs as its own task
+        private final KeyExtractor keyExtractor;
+        private final Lane[] lanes;
+        private final IdleStrategy idleStrategy;
+        private final OverflowPolicy inboundPolicy;
+        private final ZMsgUnbatcher unbatcher; // Null unless batches are split
         private static final int BUFFER_SIZE = 1024;
+        private final ZMsg[] sendBuffer = new ZMsg[BUFFER_SIZE];
+        private volatile ZMsg pending; // Received message whose lane was full
+        private ZDispatcherMetrics metrics; // Set before the dispatcher starts, or null
         private static final ThreadLocal<ZMessageBuffer> messages = new ThreadLocal<ZMessageBuffer>() {
             @Override
             protected ZMessageBuffer initialValue() {
                 return new ZMessageBuffer();
             }
         };
-        private final AtomicBoolean busy = new AtomicBoolean(false);
 
-        public SocketDispatcher(ZMQ.Socket socket, ZMessageHandler handler, ZSender sender, ExecutorService handleThreadpool) {
+        public SocketDispatcher(ZMQ.Socket socket, ZMessageHandler handler, ZSender sender, ExecutorService handleThreadpool, boolean ownsThreadpool, boolean virtual, boolean perMessage, KeyExtractor keyExtractor, int lanes, IdleStrategy idleStrategy,
+                int inboundMaxMessages, long inboundMaxBytes, OverflowPolicy inboundPolicy, boolean unbatching) {
             this.socket = socket;
             this.handler = handler;
             this.sender = sender;
             this.threadpool = handleThreadpool;
+            this.ownsThreadpool = ownsThreadpool;
+            this.virtual = virtual;
+            this.perMessage = perMessage;
+            this.keyExtractor = keyExtractor;
+            this.lanes = new Lane[lanes];
+            // Spread the remainders too, so that the lanes add up to the limits
+            for (int i = 0; i < lanes; i++) {
+                this.lanes[i] = new Lane(inboundMaxMessages / lanes + (i < inboundMaxMessages % lanes ? 1 : 0),
+                        inboundMaxBytes / lanes + (i < inboundMaxBytes % lanes ? 1 : 0));
+            }
+            this.inboundPolicy = inboundPolicy;
+            this.unbatcher = unbatching ? new ZMsgUnbatcher() : null;
+            this.idleStrategy = idleStrategy;
+        }
+
+        public void attach() {
+            // The sender may come from a dispatcher that was unregistered
+            sender.closed = false;
+            sender.idleStrategy = idleStrategy;
         }
 
         public void run() {
+            idleStrategy.start(socket);
             while (active) {
-                doReceive();
-                doHandle();
-                doSend();
+                int workCount = doReceive();
+                workCount += doHandle();
+                workCount += doSend();
+                idleStrategy.idle(workCount, pending != null);
+            }
+            idleStrategy.stop();
+            // Unless the sender was handed to another dispatcher meanwhile
+            if (sender.idleStrategy == idleStrategy) {
+                sender.closed = true;
+            }
+            // The strategy may now serve another socket
+            idleStrategy.inUse.set(false);
+            if (ownsThreadpool) {
+                threadpool.shutdown();
             }
-            threadpool.shutdown();
             shutdownLatch.countDown();
         }
 
@@ -116,43 +864,209 @@ public class ZDispatcher {
         public void shutdown() {
             try {
                 this.active = false;
+                this.idleStrategy.wakeup();
                 this.shutdownLatch.await();
 
             } catch (InterruptedException e) {
             }
         }
 
-        private void doReceive() {
+        private Lane laneOf(ZMsg msg) {
+            if (lanes.length == 1) {
+                return lanes[0];
+            }
+            int hash = keyExtractor.keyOf(msg);
+            hash ^= (hash >>> 16);
+            return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+        }
+
+        private QueueStats inboundStats() {
+            long depth = 0;
+            long bytes = 0;
+            long dropped = 0;
+            for (Lane lane : lanes) {
+                QueueStats stats = lane.in.stats();
+                depth += stats.getDepth();
+                bytes += stats.getBytes();
+                dropped += stats.getDropped();
+            }
+            return new QueueStats(depth, bytes, dropped);
+        }
+
+        private int doReceive() {
+            // The socket is not read while a message waits for room in its lane
+            if (pending != null) {
+                ZMsg msg = pending;
+                pending = null;
+                if (!enqueue(msg)) {
+                    return 0;
+                }
+            }
             ZMsg msg;
-            int remainingBuffer = BUFFER_SIZE;
-            while (active && remainingBuffer-- > 0 && (msg = ZMsg.recvMsg(socket, ZMQ.DONTWAIT)) != null && msg.size() > 0 && msg.getFirst().hasData()) {
-                in.add(msg);
+            int received = 0;
+            while (active && received < BUFFER_SIZE && (msg = receive()) != null && msg.size() > 0 && msg.getFirst().hasData()) {
+                received++;
+                if (!enqueue(msg)) {
+                    break;
+                }
+            }
+            if (metrics != null && received > 0) {
+                metrics.received(received);
+            }
+            return received;
+        }
+
+        // Messages left in a batch come before the socket is read again
+        private ZMsg receive() {
+            if (unbatcher == null) {
+                return ZMsg.recvMsg(socket, ZMQ.DONTWAIT);
+            }
+            return unbatcher.recvMsg(socket, ZMQ.DONTWAIT);
+        }
+
+        // Queues a received message according to the inbound policy, returns
+        // false if the socket must not be read further for now
+        private boolean enqueue(ZMsg msg) {
+            MessageQueue in = laneOf(msg).in;
+            if (in.offer(msg)) {
+                return true;
+            }
+            switch (inboundPolicy) {
+            case DROP_NEWEST:
+                in.dropped.incrementAndGet();
+                return true;
+            case DROP_OLDEST:
+                // Even while a batch of the lane is being handled
+                if (!in.offerEvicting(msg)) {
+                    in.dropped.incrementAndGet();
+                }
+                return true;
+            default:
+                // BLOCK and STOP_READING: the message waits for room, and the
+                // dispatcher goes on submitting lanes and sending meanwhile
+                pending = msg;
+                return false;
+            }
+        }
+
+        private int doHandle() {
+            int submitted = 0;
+            for (final Lane lane : lanes) {
+                if (!lane.in.isEmpty() && lane.in.consumer.compareAndSet(false, true)) {
+                    threadpool.submit(lane);
+                    submitted++;
+                }
             }
+            return submitted;
         }
 
-        private void doHandle() {
-            if (!in.isEmpty() && busy.compareAndSet(false, true)) {
-                threadpool.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        ZMessageBuffer messages = SocketDispatcher.this.messages.get();
+        private int doSend() {
+            if (!active || !sender.out.consumer.compareAndSet(false, true)) {
+                return 0;
+            }
+            int count;
+            try {
+                count = sender.out.drain(sendBuffer);
+            } finally {
+                sender.out.consumer.set(false);
+            }
+            int sent = 0;
+            for (int i = 0; i < count; i++) {
+                if (active) {
+                    sendBuffer[i].send(socket);
+                    sent++;
+                }
+                sendBuffer[i] = null;
+            }
+            if (metrics != null && sent > 0) {
+                metrics.sent(sent);
+            }
+            return count;
+        }
+
+        // Messages handled in order, one batch at a time, by the holder of
+        // the consumer flag of the lane's queue
+        private final class Lane implements Runnable {
+            // Received messages waiting for the handler
+            private final MessageQueue in;
+
+            private Lane(int maxMessages, long maxBytes) {
+                this.in = new MessageQueue(maxMessages, maxBytes);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    if (virtual) {
+                        // A virtual thread is not reused, a thread-local batch
+                        // buffer would be allocated for every batch
+                        ZMsg msg;
+                        int handled = 0;
+                        while (handled++ < BUFFER_SIZE && (msg = perMessage ? in.hold() : in.poll()) != null) {
+                            handle(msg);
+                        }
+                    } else {
+                        ZMessageBuffer messages = SocketDispatcher.messages.get();
                         messages.drainFrom(in);
-                        busy.set(false);
                         for (int i = 0; i <= messages.lastValidIndex; i++) {
-                            if (active) {
-                                handler.handleMessage(sender, messages.buffer[i]);
-                            }
+                            handle(messages.buffer[i]);
+                            messages.buffer[i] = null;
                         }
                     }
-                });
+                } finally {
+                    // Handle one batch at a time, so that pool threads
+                    // never run the same lane concurrently
+                    in.consumer.set(false);
+                }
+                if (!in.isEmpty() || pending != null) {
+                    // Messages received meanwhile wait for the next batch, or
+                    // for room in their lane
+                    idleStrategy.wakeup();
+                }
+            }
+
+            private void handle(final ZMsg msg) {
+                if (!active) {
+                    if (perMessage) {
+                        in.release(msg);
+                    }
+                    return;
+                }
+                if (perMessage) {
+                    // The message counts against the lane limits until its
+                    // task is done, which bounds the tasks in flight
+                    threadpool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (active) {
+                                    callHandler(msg);
+                                }
+                            } finally {
+                                in.release(msg);
+                                if (pending != null) {
+                                    // A received message waits for this room
+                                    idleStrategy.wakeup();
+                                }
+                            }
+                        }
+                    });
+                } else {
+                    callHandler(msg);
+                }
             }
         }
 
-        private void doSend() {
-            ZMsg msg;
-            int remainingBuffer = BUFFER_SIZE;
-            while (active && remainingBuffer-- > 0 && (msg = sender.out.poll()) != null) {
-                msg.send(socket);
+        private void callHandler(ZMsg msg) {
+            if (metrics == null) {
+                handler.handleMessage(sender, msg);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                handler.handleMessage(sender, msg);
+            } finally {
+                metrics.handled(System.nanoTime() - start);
             }
         }
 
@@ -160,13 +1074,8 @@ public class ZDispatcher {
             private final ZMsg[] buffer = new ZMsg[BUFFER_SIZE];
             private int lastValidIndex;
 
-            private void drainFrom(BlockingQueue<ZMsg> in) {
-                int lastIndex = lastValidIndex = -1;
-                ZMsg msg;
-                while (++lastIndex < buffer.length && (msg = in.poll()) != null) {
-                    buffer[lastIndex] = msg;
-                    lastValidIndex = lastIndex;
-                }
+            private void drainFrom(MessageQueue in) {
+                lastValidIndex = in.drain(buffer) - 1;
             }
         }
     }
@@ -0,0 +1,232 @@
+package org.zeromq;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a socket registered with a ZDispatcher: how many messages it receives, handles and sends, how long its
+ * handler takes, and how deep its queues are. Metrics are only collected for sockets registered after
+ * {@link ZDispatcher#enableMetrics()}, so other sockets pay nothing.
+ *
+ * Counters are updated once per batch by the dispatcher thread and once per message by the handler threads; queue
+ * depths are read from the queues when asked for. Any thread may read a {@link Snapshot} or register the metrics with
+ * JMX.
+ */
+public class ZDispatcherMetrics implements ZDispatcherMetricsMBean {
+
+    private final ZDispatcher dispatcher;
+    private final ZMQ.Socket socket;
+    private final ZDispatcher.ZSender sender;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong handlerNanos = new AtomicLong();
+    private final Histogram handlerLatency = new Histogram();
+    private ObjectName name;
+
+    ZDispatcherMetrics(ZDispatcher dispatcher, ZMQ.Socket socket, ZDispatcher.ZSender sender) {
+        this.dispatcher = dispatcher;
+        this.socket = socket;
+        this.sender = sender;
+    }
+
+    // --------------------------------------------------------------------------
+    // Recording
+
+    void received(int count) {
+        received.addAndGet(count);
+    }
+
+    void sent(int count) {
+        sent.addAndGet(count);
+    }
+
+    void handled(long nanos) {
+        handlerNanos.addAndGet(nanos);
+        handlerLatency.record(nanos);
+    }
+
+    // --------------------------------------------------------------------------
+    // Reading
+
+    /**
+     * @return a copy of the metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    private ZDispatcher.QueueStats inbound() {
+        try {
+            return dispatcher.getInboundStats(socket);
+        } catch (IllegalArgumentException e) {
+            // The socket was unregistered, its queue is gone
+            return new ZDispatcher.QueueStats(0, 0, 0);
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, as org.zeromq:type=ZDispatcher,name=&lt;name&gt;.
+     * @param name name of the socket
+     */
+    public synchronized void register(String name) {
+        this.name = Jmx.register(this, "ZDispatcher", name);
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        if (name == null)
+            return;
+        try {
+            Jmx.unregister(name, "ZDispatcher");
+        } finally {
+            name = null;
+        }
+    }
+
+    @Override
+    public long getReceived() {
+        return received.get();
+    }
+
+    @Override
+    public long getSent() {
+        return sent.get();
+    }
+
+    @Override
+    public long getHandled() {
+        return handlerLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getHandlerNanos() {
+        return handlerNanos.get();
+    }
+
+    @Override
+    public long getHandlerLatencyP99Nanos() {
+        return handlerLatency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getHandlerLatencyMaxNanos() {
+        return handlerLatency.snapshot().getMax();
+    }
+
+    @Override
+    public long getInboundDepth() {
+        return inbound().getDepth();
+    }
+
+    @Override
+    public long getInboundBytes() {
+        return inbound().getBytes();
+    }
+
+    @Override
+    public long getInboundDropped() {
+        return inbound().getDropped();
+    }
+
+    @Override
+    public long getOutboundDepth() {
+        return sender.getStats().getDepth();
+    }
+
+    @Override
+    public long getOutboundBytes() {
+        return sender.getStats().getBytes();
+    }
+
+    @Override
+    public long getOutboundDropped() {
+        return sender.getStats().getDropped();
+    }
+
+    @Override
+    public void reset() {
+        received.set(0);
+        sent.set(0);
+        handlerNanos.set(0);
+        handlerLatency.reset();
+    }
+
+    /**
+     * Immutable copy of the metrics of a socket.
+     */
+    public static final class Snapshot {
+        private final long received;
+        private final long sent;
+        private final long handlerNanos;
+        private final Histogram.Snapshot handlerLatency;
+        private final ZDispatcher.QueueStats inbound;
+        private final ZDispatcher.QueueStats outbound;
+
+        private Snapshot(ZDispatcherMetrics metrics) {
+            this.received = metrics.received.get();
+            this.sent = metrics.sent.get();
+            this.handlerNanos = metrics.handlerNanos.get();
+            this.handlerLatency = metrics.handlerLatency.snapshot();
+            this.inbound = metrics.inbound();
+            this.outbound = metrics.sender.getStats();
+        }
+
+        /**
+         * @return number of messages read from the socket, including those later dropped
+         */
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * @return number of messages written to the socket
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * @return number of messages passed to the handler
+         */
+        public long getHandled() {
+            return handlerLatency.getCount();
+        }
+
+        /**
+         * @return nanoseconds spent in the handler, all handler threads together
+         */
+        public long getHandlerNanos() {
+            return handlerNanos;
+        }
+
+        /**
+         * @return nanoseconds spent in each handler call
+         */
+        public Histogram.Snapshot getHandlerLatency() {
+            return handlerLatency;
+        }
+
+        /**
+         * @return counters of the messages received and not handled yet
+         */
+        public ZDispatcher.QueueStats getInbound() {
+            return inbound;
+        }
+
+        /**
+         * @return counters of the messages waiting to be sent
+         */
+        public ZDispatcher.QueueStats getOutbound() {
+            return outbound;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("received=%d sent=%d handled=%d latency=[%s] inbound=[%s] outbound=[%s]", received,
+                    sent, getHandled(), handlerLatency, inbound, outbound);
+        }
+    }
+}
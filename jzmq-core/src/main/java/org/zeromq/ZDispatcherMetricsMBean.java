@@ -0,0 +1,32 @@
+package org.zeromq;
+
+/**
+ * JMX view of {@link ZDispatcherMetrics}. Times are in nanoseconds.
+ */
+public interface ZDispatcherMetricsMBean {
+    public long getReceived();
+
+    public long getSent();
+
+    public long getHandled();
+
+    public long getHandlerNanos();
+
+    public long getHandlerLatencyP99Nanos();
+
+    public long getHandlerLatencyMaxNanos();
+
+    public long getInboundDepth();
+
+    public long getInboundBytes();
+
+    public long getInboundDropped();
+
+    public long getOutboundDepth();
+
+    public long getOutboundBytes();
+
+    public long getOutboundDropped();
+
+    public void reset();
+}
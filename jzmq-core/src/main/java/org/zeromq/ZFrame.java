@@ -1,8 +1,10 @@
 package org.zeromq;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.zeromq.ZMQ.Socket;
 
@@ -15,15 +17,37 @@ import org.zeromq.ZMQ.Socket;
  * send the same frame many times. Frames are binary, and this class has no
  * special support for text data. Based on <a
  * href="http://github.com/zeromq/czmq/blob/master/src/zframe.c">zframe.c</a> in
+ *
+ * A frame created from a direct ByteBuffer, or with newDirect(), keeps its data
+ * off-heap: with zmq 3.x and later it is received into and sent from the
+ * buffer without copying it to a Java array. Its data runs from position 0 to
+ * the limit of the buffer.
+ *
+ * A frame received into an existing frame reuses its data array whenever the
+ * array is large enough, so the array of a heap frame may be longer than its
+ * data; getData() then returns a copy of the right length, while size(),
+ * the comparisons and the readers such as getInt() work in place.
+ *
+ * Duplicates share their data with the original frame instead of copying it.
+ * Shared data is never written to: a frame that receives into its own storage
+ * gets new storage while it is shared, and one that is reset or destroyed
+ * simply lets go of it.
  */
 public class ZFrame
 {
     private static Charset ENCODING = Charset.forName("UTF-8");
 
     private byte[] data;
+    // Length of the data in the array of a heap frame
+    private int length;
     private boolean more;
     private int capacity;
     private ByteBuffer buffer;
+    private boolean direct;
+    // Number of frames sharing data, or null if it was never shared
+    private AtomicInteger owners;
+    // Hash of the data, 0 until computed
+    private int hash;
 
     public ZFrame()
     {
@@ -35,11 +59,30 @@ public class ZFrame
         init(data);
     }
 
+    /**
+     * Creates a frame from a buffer. A heap buffer lends its whole backing array
+     * to the frame; the data of a direct buffer, from its position to its limit,
+     * stays off-heap and is shared with the frame, which can receive into the
+     * whole buffer past its position.
+     * @param buffer
+     *            Heap or direct buffer
+     */
     public ZFrame(final ByteBuffer buffer)
     {
         Utils.checkNotNull(buffer);
+        if (buffer.isDirect()) {
+            // Keeps the room past the limit, to receive larger frames into
+            ByteBuffer whole = buffer.duplicate();
+            whole.limit(whole.capacity());
+            this.buffer = whole.slice();
+            this.buffer.limit(buffer.remaining());
+            this.capacity = this.buffer.capacity();
+            this.direct = true;
+            return;
+        }
         if (buffer.hasArray()) {
             this.data = buffer.array();
+            this.length = data.length;
         }
         this.capacity = buffer.capacity();
         this.buffer = buffer;
@@ -53,10 +96,28 @@ public class ZFrame
 
     private void init(final byte[] data)
     {
+        unshare();
+        this.hash = 0;
         this.data = data;
+        this.length = data.length;
         this.buffer = ByteBuffer.wrap(this.data);
         this.capacity = this.data.length;
+        this.direct = false;
+    }
 
+    /**
+     * Creates an empty frame backed by a newly allocated direct buffer, to
+     * receive frames of up to capacity bytes into without copying them to the
+     * Java heap.
+     * @param capacity
+     *            Largest frame size the frame can receive
+     * @return new empty frame
+     */
+    public static ZFrame newDirect(int capacity)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.limit(0);
+        return new ZFrame(buffer);
     }
 
     public int capacity()
@@ -69,19 +130,52 @@ public class ZFrame
      */
     public void destroy()
     {
+        unshare();
+        hash = 0;
         data = null;
+        length = 0;
         buffer = null;
         capacity = 0;
+        direct = false;
     }
 
     /**
+     * Returns the data of the frame. For a direct frame, or a frame received
+     * into a longer array, this is a copy; use getBuffer() to read a direct
+     * frame in place. Otherwise the array may be shared with duplicates of the
+     * frame and must not be modified.
      * @return the data
      */
     public byte[] getData()
     {
+        if (direct) {
+            byte[] copy = new byte[buffer.limit()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
+        if (data != null && data.length != length)
+            return Arrays.copyOf(data, length);
         return data;
     }
 
+    /**
+     * @return True if the frame data is held off-heap, in a direct buffer
+     */
+    public boolean isDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * Returns a read-only view of the data of a direct frame, from position 0
+     * to its size, valid until the frame receives again or is destroyed.
+     * @return view of the data, or null if the frame is not direct
+     */
+    public ByteBuffer getBuffer()
+    {
+        return direct ? buffer.asReadOnlyBuffer() : null;
+    }
+
     /**
      * @return More flag, true if last read had MORE message parts to come
      */
@@ -96,7 +190,9 @@ public class ZFrame
      */
     public int size()
     {
-        return hasData() ? data.length : 0;
+        if (direct)
+            return buffer.limit();
+        return hasData() ? length : 0;
     }
 
     /**
@@ -105,7 +201,7 @@ public class ZFrame
      */
     public boolean hasData()
     {
-        return data != null;
+        return data != null || direct;
     }
 
     /**
@@ -122,27 +218,96 @@ public class ZFrame
         // before calling
         // the 0MQ send function, so don't have to clone the message data again
         // here.
+        if (direct)
+            return sendDirect(socket, flags);
+        if (hasData() && data.length != length)
+            return socket.send(data, 0, length, flags);
         return socket.send(hasData() ? data : new byte[0], flags);
     }
 
+    /**
+     * Sends the data of a direct frame straight from its buffer. zmq copies it
+     * before returning, so the frame may be sent again or reused at once.
+     */
+    private boolean sendDirect(Socket socket, int flags)
+    {
+        try {
+            return sendBuffer(socket, buffer, flags);
+        }
+        finally {
+            buffer.position(0);
+        }
+    }
+
+    /**
+     * Sends the data of a direct buffer, from its position to its limit, as one
+     * frame. The JNI driver only sends straight from the buffer on zmq 3.x and
+     * later; on zmq 2.x the data is copied to a Java array and sent from there.
+     * @return True if success, False if the socket would have blocked
+     */
+    static boolean sendBuffer(Socket socket, ByteBuffer buffer, int flags)
+    {
+        if (ZMQ.getMajorVersion() < 3) {
+            byte[] copy = new byte[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return socket.send(copy, flags);
+        }
+        try {
+            return socket.sendByteBuffer(buffer, flags) >= 0;
+        }
+        catch (ZMQException e) {
+            if (e.getErrorCode() == ZMQ.Error.EAGAIN.getCode())
+                return false;
+            throw e;
+        }
+    }
+
     /**
      * Creates a new frame that duplicates an existing frame
-     * @return Duplicate of frame; message contents copied into new byte array
+     * @return Duplicate of frame, sharing its data with this frame until
+     *         either receives new data
      */
     public ZFrame duplicate()
     {
-        int length = size();
-        byte[] copy = new byte[length];
-        System.arraycopy(this.data, 0, copy, 0, length);
         ZFrame frame = new ZFrame();
-        frame.data = copy;
+        if (hasData()) {
+            if (owners == null)
+                owners = new AtomicInteger(1);
+            owners.incrementAndGet();
+            frame.owners = owners;
+        }
+        frame.data = this.data;
+        frame.length = this.length;
         if (this.buffer != null) {
             frame.buffer = this.buffer.duplicate();
         }
+        frame.capacity = this.capacity;
+        frame.direct = this.direct;
         frame.more = this.more;
+        frame.hash = this.hash;
         return frame;
     }
 
+    /**
+     * @return True if other frames share the data of this frame
+     */
+    boolean isShared()
+    {
+        return owners != null && owners.get() > 1;
+    }
+
+    /**
+     * Lets go of the data of this frame, so that the last frame sharing it can
+     * write to it again.
+     */
+    private void unshare()
+    {
+        if (owners != null) {
+            owners.decrementAndGet();
+            owners = null;
+        }
+    }
+
     /**
      * Sets new contents for frame
      * @param data
@@ -171,6 +336,7 @@ public class ZFrame
     {
         String hexChar = "0123456789ABCDEF";
 
+        byte[] data = getData();
         StringBuilder b = new StringBuilder();
         for (int nbr = 0; nbr < data.length; nbr++) {
             int b1 = data[nbr] >>> 4 & 0xf;
@@ -191,7 +357,171 @@ public class ZFrame
     {
         if (!hasData())
             return false;
-        return new String(this.data).compareTo(str) == 0;
+        if (isAscii(str))
+            return equalsAscii(str);
+        return new String(getData()).compareTo(str) == 0;
+    }
+
+    private static boolean isAscii(CharSequence str)
+    {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the data with ASCII text, without decoding it to a String.
+     * @param str
+     *            text to compare with frame data
+     * @return True if frame data is the ASCII encoding of str; false if str
+     *         holds any non-ASCII character
+     */
+    public boolean equalsAscii(CharSequence str)
+    {
+        int size = size();
+        if (str.length() != size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80 || byteAt(i) != c)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the data with the content of an array.
+     * @param bytes
+     *            bytes to compare with frame data
+     * @return True if frame data holds exactly these bytes
+     */
+    public boolean equals(byte[] bytes)
+    {
+        if (bytes.length != size())
+            return false;
+        if (isExact())
+            return Arrays.equals(data, bytes);
+        for (int i = 0; i < bytes.length; i++) {
+            if (byteAt(i) != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether the data starts with the given bytes, as when matching a
+     * PUB-SUB topic or a command prefix.
+     * @param prefix
+     *            bytes to look for
+     * @return True if frame data begins with prefix
+     */
+    public boolean startsWith(byte[] prefix)
+    {
+        if (prefix.length > size())
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (byteAt(i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a 32-bit integer in network (big-endian) byte order.
+     * @param offset
+     *            position of the first byte in frame data
+     * @return the integer
+     * @throws IndexOutOfBoundsException
+     *             if the frame holds fewer than offset + 4 bytes
+     */
+    public int getInt(int offset)
+    {
+        return getInt(offset, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reads a 32-bit integer.
+     * @param offset
+     *            position of the first byte in frame data
+     * @param order
+     *            byte order of the integer
+     * @return the integer
+     * @throws IndexOutOfBoundsException
+     *             if the frame holds fewer than offset + 4 bytes
+     */
+    public int getInt(int offset, ByteOrder order)
+    {
+        return (int) getBits(offset, 4, order);
+    }
+
+    /**
+     * Reads a 64-bit integer in network (big-endian) byte order.
+     * @param offset
+     *            position of the first byte in frame data
+     * @return the integer
+     * @throws IndexOutOfBoundsException
+     *             if the frame holds fewer than offset + 8 bytes
+     */
+    public long getLong(int offset)
+    {
+        return getLong(offset, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reads a 64-bit integer.
+     * @param offset
+     *            position of the first byte in frame data
+     * @param order
+     *            byte order of the integer
+     * @return the integer
+     * @throws IndexOutOfBoundsException
+     *             if the frame holds fewer than offset + 8 bytes
+     */
+    public long getLong(int offset, ByteOrder order)
+    {
+        return getBits(offset, 8, order);
+    }
+
+    private long getBits(int offset, int length, ByteOrder order)
+    {
+        if (offset < 0 || offset > size() - length)
+            throw new IndexOutOfBoundsException("Cannot read " + length + " bytes at " + offset + " of a frame of "
+                    + size() + " bytes");
+        long value = 0;
+        if (order == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < length; i++)
+                value = value << 8 | byteAt(offset + i) & 0xff;
+        }
+        else {
+            for (int i = length - 1; i >= 0; i--)
+                value = value << 8 | byteAt(offset + i) & 0xff;
+        }
+        return value;
+    }
+
+    private byte byteAt(int i)
+    {
+        return direct ? buffer.get(i) : data[i];
+    }
+
+    /**
+     * @return True if the data is a heap array holding exactly the data, or
+     *         none
+     */
+    private boolean isExact()
+    {
+        return !direct && (data == null || data.length == length);
+    }
+
+    /**
+     * @return the buffer of a direct frame, holding its data from position 0
+     *         to its limit, or null if the frame is not direct
+     */
+    ByteBuffer directBuffer()
+    {
+        return direct ? buffer : null;
     }
 
     @Override
@@ -204,15 +534,34 @@ public class ZFrame
 
         ZFrame zFrame = (ZFrame) o;
 
+        if (!isExact() || !zFrame.isExact())
+            return hasData() == zFrame.hasData() && content().equals(zFrame.content());
         if (!Arrays.equals(data, zFrame.data))
             return false;
         return true;
     }
 
+    /**
+     * The hash of the data is computed once and kept until the frame receives
+     * or is reset, so the data must not be modified in place in between.
+     */
     @Override
     public int hashCode()
     {
-        int hashcode = Arrays.hashCode(data);
+        int hashcode = hash;
+        if (hashcode == 0) {
+            if (!isExact()) {
+                // Same as Arrays.hashCode, so that equal frames have equal
+                // hash codes however they hold their data
+                hashcode = 1;
+                for (int i = 0; i < size(); i++)
+                    hashcode = 31 * hashcode + byteAt(i);
+            }
+            else {
+                hashcode = Arrays.hashCode(data);
+            }
+            hash = hashcode;
+        }
         hashcode += more ? 1231 : 1237;
         return hashcode;
     }
@@ -226,6 +575,7 @@ public class ZFrame
     {
         if (!hasData())
             return "";
+        byte[] data = getData();
         // Dump message as text or hex-encoded string
         boolean isText = true;
         for (int i = 0; i < data.length; i++) {
@@ -238,6 +588,17 @@ public class ZFrame
             return strhex();
     }
 
+    /**
+     * @return the data as a buffer, for comparisons between heap and direct
+     *         frames
+     */
+    private ByteBuffer content()
+    {
+        if (direct)
+            return buffer.duplicate();
+        return data == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(data, 0, length);
+    }
+
     /**
      * Internal method to call recv on the socket. Does not trap any
      * ZMQExceptions but expects caling routine to handle them.
@@ -249,7 +610,9 @@ public class ZFrame
     {
         try {
             data = socket.recv(flags);
+            length = data == null ? 0 : data.length;
             more = socket.hasReceiveMore();
+            hash = 0;
         } catch (ZMQException e) {
             ZMQ.Error error = ZMQ.Error.findByCode(e.getErrorCode());
             if (error == ZMQ.Error.ETERM || error == ZMQ.Error.ENOTSOCK) {
@@ -262,6 +625,121 @@ public class ZFrame
         return data;
     }
 
+    /**
+     * Internal method to receive into this frame, reusing its data array if it
+     * can hold the message and is not shared. Leaves the frame untouched if
+     * nothing was received.
+     * @param socket
+     *            0MQ socket to read from
+     * @return True if a frame was received
+     */
+    private boolean recvInto(Socket socket, int flags)
+    {
+        if (direct)
+            return recvDirect(socket, flags);
+        byte[] reusable = isShared() ? null : data;
+        byte[] received;
+        try {
+            // Without an array to reuse, the plain receive does the same
+            received = reusable == null ? socket.recv(flags) : socket.recv(reusable, flags);
+        }
+        catch (ZMQException e) {
+            ZMQ.Error error = ZMQ.Error.findByCode(e.getErrorCode());
+            if (error == ZMQ.Error.ETERM || error == ZMQ.Error.ENOTSOCK) {
+                received = null;
+            }
+            else {
+                throw e;
+            }
+        }
+        if (received == null)
+            return false;
+        more = socket.hasReceiveMore();
+        hash = 0;
+        if (received != data) {
+            unshare();
+            data = received;
+            buffer = null;
+            capacity = received.length;
+        }
+        length = reusable == null ? received.length : socket.getReceivedSize();
+        return true;
+    }
+
+    /**
+     * Internal method to receive into the buffer of a direct frame, without
+     * copying the data to the Java heap. A buffer shared with other frames is
+     * replaced by a new one rather than overwritten. Leaves the frame untouched
+     * if nothing was received.
+     * @param socket
+     *            0MQ socket to read from
+     * @return True if a frame was received
+     * @throws ZMQException
+     *             with error code ENOBUFS if the frame was larger than the
+     *             capacity of the buffer; the frame then holds its first
+     *             capacity bytes, and the rest of its message is discarded
+     *             so that the next receive starts a new message
+     */
+    private boolean recvDirect(Socket socket, int flags)
+    {
+        int limit = buffer.limit();
+        boolean shared = isShared();
+        ByteBuffer target = shared ? ByteBuffer.allocateDirect(capacity) : buffer;
+        target.clear();
+        int received;
+        try {
+            received = recvBuffer(socket, target, flags);
+        }
+        catch (ZMQException e) {
+            buffer.limit(limit);
+            ZMQ.Error error = ZMQ.Error.findByCode(e.getErrorCode());
+            if (error == ZMQ.Error.ETERM || error == ZMQ.Error.ENOTSOCK) {
+                return false;
+            }
+            throw e;
+        }
+        if (received < 0) {
+            buffer.limit(limit);
+            return false;
+        }
+        more = socket.hasReceiveMore();
+        hash = 0;
+        if (shared) {
+            unshare();
+            buffer = target;
+        }
+        buffer.limit(Math.min(received, capacity));
+        buffer.position(0);
+        if (received > capacity) {
+            // The parts left are already queued, so this does not block
+            while (socket.hasReceiveMore()) {
+                socket.recv(0);
+            }
+            more = false;
+            throw new ZMQException("Frame of " + received + " bytes truncated to the " + capacity
+                    + " bytes of a direct frame", (int) ZMQ.Error.ENOBUFS.getCode());
+        }
+        return true;
+    }
+
+    /**
+     * Receives a frame into a direct buffer, up to the capacity of the frame.
+     * The JNI driver only receives straight into the buffer on zmq 3.x and
+     * later; on zmq 2.x the frame is received into a Java array and copied.
+     * @return size of the whole frame, which may exceed the capacity, or -1 if
+     *         nothing was received
+     */
+    private int recvBuffer(Socket socket, ByteBuffer target, int flags)
+    {
+        if (ZMQ.getMajorVersion() >= 3)
+            return socket.recvZeroCopy(target, capacity, flags);
+        byte[] received = socket.recv(flags);
+        if (received == null)
+            return -1;
+        target.put(received, 0, Math.min(received.length, capacity));
+        return received.length;
+    }
+
     /**
      * Receives single frame from socket, returns the received frame object, or
      * null if the recv was interrupted. Does a blocking recv, if you want to
@@ -293,4 +771,24 @@ public class ZFrame
         }
         return f;
     }
+
+    /**
+     * Receive a frame off the socket into an existing frame, whose data array
+     * is reused when it is large enough for the incoming frame. Nothing else
+     * may hold on to the data of the reused frame, as it is overwritten.
+     * @param socket
+     *            Socket to read from
+     * @param flags
+     *            Pass flags to 0MQ socket.recv call
+     * @param reuse
+     *            Frame to receive into, or null to allocate a new one
+     * @return received frame, which is reuse if given, else null if there was
+     *         no input waiting or if the read was interrupted; reuse is then
+     *         left unchanged
+     */
+    public static ZFrame recvFrame(Socket socket, int flags, ZFrame reuse)
+    {
+        ZFrame f = reuse == null ? new ZFrame() : reuse;
+        return f.recvInto(socket, flags) ? f : null;
+    }
 }
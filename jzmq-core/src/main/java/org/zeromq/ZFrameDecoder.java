@@ -0,0 +1,383 @@
+package org.zeromq;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads values written by ZFrameEncoder straight from frame data, whether in an array or a direct buffer. A decoder
+ * is a flyweight: wrap it around each received frame in turn instead of creating a new one. Reading primitives and
+ * varints allocates nothing; strings and arrays allocate only the value returned.
+ *
+ * <pre>
+ * ZFrameDecoder decoder = new ZFrameDecoder();
+ * decoder.wrap(frame);
+ * int orderId = decoder.getVarInt();
+ * String symbol = decoder.getString();
+ * </pre>
+ *
+ * Reading past the end of the data throws BufferUnderflowException, and reading a malformed varint or length throws
+ * IllegalStateException. A decoder is not thread-safe.
+ */
+public class ZFrameDecoder
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Data is either in array, or in buffer when direct
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+    // Reused to decode strings held in direct buffers
+    private byte[] scratch;
+
+    /**
+     * Creates a decoder with no data, to be wrapped around some.
+     */
+    public ZFrameDecoder()
+    {
+    }
+
+    /**
+     * Creates a decoder over the data of a frame.
+     * @param frame
+     *            frame to read
+     */
+    public ZFrameDecoder(ZFrame frame)
+    {
+        wrap(frame);
+    }
+
+    /**
+     * Reads the data of a frame, heap or direct, from its first byte.
+     * @param frame
+     *            frame to read
+     * @return this decoder
+     */
+    public ZFrameDecoder wrap(ZFrame frame)
+    {
+        ByteBuffer direct = frame.directBuffer();
+        if (direct != null)
+            return wrap(direct, 0, direct.limit());
+        byte[] data = frame.hasData() ? frame.getData() : new byte[0];
+        return wrap(data, 0, data.length);
+    }
+
+    /**
+     * Reads bytes of an array.
+     * @param data
+     *            array to read
+     * @param offset
+     *            position of the first byte to read
+     * @param length
+     *            number of bytes to read
+     * @return this decoder
+     */
+    public ZFrameDecoder wrap(byte[] data, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException();
+        this.array = data;
+        this.buffer = null;
+        this.position = offset;
+        this.limit = offset + length;
+        return this;
+    }
+
+    /**
+     * Reads a buffer from its position to its limit, leaving its position
+     * unchanged.
+     * @param data
+     *            heap or direct buffer to read
+     * @return this decoder
+     */
+    public ZFrameDecoder wrap(ByteBuffer data)
+    {
+        if (data.hasArray())
+            return wrap(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        return wrap(data, data.position(), data.limit());
+    }
+
+    private ZFrameDecoder wrap(ByteBuffer data, int position, int limit)
+    {
+        this.array = null;
+        this.buffer = data;
+        this.position = position;
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return number of bytes left to read
+     */
+    public int remaining()
+    {
+        return limit - position;
+    }
+
+    /**
+     * @return true if there are bytes left to read
+     */
+    public boolean hasRemaining()
+    {
+        return position < limit;
+    }
+
+    /**
+     * Skips bytes.
+     * @param length
+     *            number of bytes to skip
+     * @return this decoder
+     */
+    public ZFrameDecoder skip(int length)
+    {
+        check(length);
+        position += length;
+        return this;
+    }
+
+    // ********* Primitives ********************************* //
+
+    public byte getByte()
+    {
+        check(1);
+        return byteAt(position++);
+    }
+
+    public boolean getBoolean()
+    {
+        return getByte() != 0;
+    }
+
+    public short getShort()
+    {
+        return (short) getBits(2);
+    }
+
+    public int getInt()
+    {
+        return (int) getBits(4);
+    }
+
+    public long getLong()
+    {
+        return getBits(8);
+    }
+
+    public float getFloat()
+    {
+        return Float.intBitsToFloat((int) getBits(4));
+    }
+
+    public double getDouble()
+    {
+        return Double.longBitsToDouble(getBits(8));
+    }
+
+    private long getBits(int length)
+    {
+        check(length);
+        long value = 0;
+        for (int i = 0; i < length; i++)
+            value = value << 8 | byteAt(position++) & 0xff;
+        return value;
+    }
+
+    // ********* Variable length integers ******************* //
+
+    /**
+     * @return an int written by ZFrameEncoder.putVarInt()
+     */
+    public int getVarInt()
+    {
+        long value = getVarLong(5);
+        if (value >>> 32 != 0)
+            throw new IllegalStateException("Malformed varint");
+        return (int) value;
+    }
+
+    /**
+     * @return a long written by ZFrameEncoder.putVarLong()
+     */
+    public long getVarLong()
+    {
+        return getVarLong(10);
+    }
+
+    /**
+     * @return an int written by ZFrameEncoder.putSignedVarInt()
+     */
+    public int getSignedVarInt()
+    {
+        int value = getVarInt();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * @return a long written by ZFrameEncoder.putSignedVarLong()
+     */
+    public long getSignedVarLong()
+    {
+        long value = getVarLong();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    private long getVarLong(int maxBytes)
+    {
+        long value = 0;
+        for (int i = 0; i < maxBytes; i++) {
+            byte b = getByte();
+            value |= (long) (b & 0x7f) << 7 * i;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    // ********* Strings and arrays ************************* //
+
+    /**
+     * @return a string written by ZFrameEncoder.putString()
+     */
+    public String getString()
+    {
+        int size = getLength(1);
+        String value;
+        if (array != null) {
+            value = new String(array, position, size, UTF8);
+        }
+        else {
+            if (scratch == null || scratch.length < size)
+                scratch = new byte[Math.max(size, 64)];
+            for (int i = 0; i < size; i++)
+                scratch[i] = byteAt(position + i);
+            value = new String(scratch, 0, size, UTF8);
+        }
+        position += size;
+        return value;
+    }
+
+    /**
+     * Tests whether the next string equals some ASCII text, without decoding
+     * it, and skips it if so.
+     * @param value
+     *            text to compare the string with
+     * @return true if the string was the ASCII encoding of value and was
+     *         skipped, false if the decoder did not move
+     */
+    public boolean nextStringEquals(CharSequence value)
+    {
+        int start = position;
+        int size = getLength(1);
+        boolean equal = size == value.length();
+        for (int i = 0; equal && i < size; i++) {
+            char c = value.charAt(i);
+            equal = c < 0x80 && byteAt(position + i) == c;
+        }
+        if (!equal) {
+            position = start;
+            return false;
+        }
+        position += size;
+        return true;
+    }
+
+    /**
+     * @return bytes written by ZFrameEncoder.putBytes()
+     */
+    public byte[] getBytes()
+    {
+        byte[] value = new byte[getLength(1)];
+        copy(value, 0, value.length);
+        return value;
+    }
+
+    /**
+     * Reads bytes written by ZFrameEncoder.putBytes() into an array.
+     * @param dst
+     *            array to copy the bytes into, large enough for them
+     * @param offset
+     *            where to copy the first byte
+     * @return number of bytes read
+     */
+    public int getBytes(byte[] dst, int offset)
+    {
+        int start = position;
+        int length = getLength(1);
+        if (offset < 0 || offset + length > dst.length) {
+            position = start;
+            throw new IndexOutOfBoundsException("No room for " + length + " bytes");
+        }
+        copy(dst, offset, length);
+        return length;
+    }
+
+    /**
+     * @return ints written by ZFrameEncoder.putInts()
+     */
+    public int[] getInts()
+    {
+        int[] value = new int[getLength(4)];
+        for (int i = 0; i < value.length; i++)
+            value[i] = (int) getBits(4);
+        return value;
+    }
+
+    /**
+     * @return longs written by ZFrameEncoder.putLongs()
+     */
+    public long[] getLongs()
+    {
+        long[] value = new long[getLength(8)];
+        for (int i = 0; i < value.length; i++)
+            value[i] = getBits(8);
+        return value;
+    }
+
+    /**
+     * @return doubles written by ZFrameEncoder.putDoubles()
+     */
+    public double[] getDoubles()
+    {
+        double[] value = new double[getLength(8)];
+        for (int i = 0; i < value.length; i++)
+            value[i] = Double.longBitsToDouble(getBits(8));
+        return value;
+    }
+
+    // ********* Data *************************************** //
+
+    // Reads a count of elements and checks that they are all there, before
+    // anything is allocated for them
+    private int getLength(int elementSize)
+    {
+        int count = getVarInt();
+        if (count < 0)
+            throw new IllegalStateException("Malformed length " + (count & 0xffffffffL));
+        check((long) count * elementSize);
+        return count;
+    }
+
+    private void copy(byte[] dst, int offset, int length)
+    {
+        if (array != null) {
+            System.arraycopy(array, position, dst, offset, length);
+        }
+        else {
+            for (int i = 0; i < length; i++)
+                dst[offset + i] = byteAt(position + i);
+        }
+        position += length;
+    }
+
+    private byte byteAt(int index)
+    {
+        return array != null ? array[index] : buffer.get(index);
+    }
+
+    private void check(long length)
+    {
+        if (length < 0 || length > limit - position)
+            throw new BufferUnderflowException();
+    }
+}
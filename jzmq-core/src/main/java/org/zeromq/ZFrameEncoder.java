@@ -0,0 +1,456 @@
+package org.zeromq;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Writes typed values into frame data: primitives in network byte order, variable length integers, and strings and
+ * arrays prefixed with their length, to be read back with ZFrameDecoder. An encoder keeps its buffer from one frame
+ * to the next, and sends straight from it, so encoding and sending a frame allocates nothing once the buffer is large
+ * enough.
+ *
+ * <pre>
+ * ZFrameEncoder encoder = ZFrameEncoder.local().reset();
+ * encoder.putVarInt(orderId).putString(symbol).putLong(quantity).putDouble(price);
+ * encoder.send(socket, 0);
+ * </pre>
+ *
+ * The buffer is on the heap by default, or off-heap to send frames without copying them to a Java array first. An
+ * encoder may also write into a direct buffer given by the caller, such as one of a ZCompactMsg or a mapped file, in
+ * which case it does not grow. An encoder is not thread-safe.
+ */
+public class ZFrameEncoder
+{
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final ThreadLocal<ZFrameEncoder> LOCAL = new ThreadLocal<ZFrameEncoder>()
+    {
+        @Override
+        protected ZFrameEncoder initialValue()
+        {
+            return new ZFrameEncoder();
+        }
+    };
+
+    private final boolean direct;
+    private final boolean growable;
+    private ByteBuffer buffer;
+    // Backing array of a heap buffer, null for a direct one
+    private byte[] array;
+    // Start of the frame in the buffer, and position of the next byte
+    private int start;
+    private int position;
+
+    /**
+     * Creates an encoder with a growable buffer on the heap.
+     */
+    public ZFrameEncoder()
+    {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Creates an encoder with a growable buffer.
+     * @param capacity
+     *            initial size of the buffer in bytes
+     * @param direct
+     *            true to allocate the buffer off the Java heap
+     */
+    public ZFrameEncoder(int capacity, boolean direct)
+    {
+        this.direct = direct;
+        this.growable = true;
+        this.buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        this.array = direct ? null : buffer.array();
+    }
+
+    /**
+     * Creates an encoder writing into a given buffer, from its position to its
+     * limit, without ever growing it. Writing past the limit throws
+     * BufferOverflowException. The position of the buffer is not changed.
+     * @param target
+     *            heap or direct buffer to write into
+     */
+    public ZFrameEncoder(ByteBuffer target)
+    {
+        this.direct = target.isDirect();
+        this.growable = false;
+        this.buffer = target.duplicate();
+        this.array = target.hasArray() ? target.array() : null;
+        this.start = target.position();
+        this.position = start;
+        this.buffer.clear();
+        this.buffer.limit(target.limit());
+    }
+
+    /**
+     * @return the encoder of the current thread, with a growable heap buffer
+     */
+    public static ZFrameEncoder local()
+    {
+        return LOCAL.get();
+    }
+
+    /**
+     * Starts a new frame, keeping the buffer.
+     * @return this encoder
+     */
+    public ZFrameEncoder reset()
+    {
+        position = start;
+        return this;
+    }
+
+    /**
+     * @return number of bytes written since the last reset
+     */
+    public int size()
+    {
+        return position - start;
+    }
+
+    // ********* Output ************************************* //
+
+    /**
+     * Sends the encoded data as one frame, straight from the buffer.
+     * @param socket
+     *            0MQ socket to send on
+     * @param flags
+     *            Valid send() method flags, defined in org.zeromq.ZMQ class
+     * @return True if success, else False
+     */
+    public boolean send(Socket socket, int flags)
+    {
+        if (array != null)
+            return socket.send(array, buffer.arrayOffset() + start, size(), flags);
+        int limit = buffer.limit();
+        buffer.limit(position);
+        buffer.position(start);
+        try {
+            return ZFrame.sendBuffer(socket, buffer, flags);
+        }
+        finally {
+            buffer.limit(limit);
+            buffer.position(0);
+        }
+    }
+
+    /**
+     * @return a new frame holding a copy of the encoded data, direct if the
+     *         buffer is
+     */
+    public ZFrame toFrame()
+    {
+        if (!direct)
+            return new ZFrame(toByteArray());
+        ByteBuffer copy = ByteBuffer.allocateDirect(size());
+        copyTo(copy);
+        copy.flip();
+        return new ZFrame(copy);
+    }
+
+    /**
+     * @return a copy of the encoded data
+     */
+    public byte[] toByteArray()
+    {
+        byte[] data = new byte[size()];
+        if (array != null) {
+            System.arraycopy(array, buffer.arrayOffset() + start, data, 0, data.length);
+        }
+        else {
+            for (int i = 0; i < data.length; i++)
+                data[i] = buffer.get(start + i);
+        }
+        return data;
+    }
+
+    /**
+     * Copies the encoded data into a buffer, at its position, which is moved
+     * past it.
+     * @param dst
+     *            buffer with room for size() bytes
+     */
+    public void copyTo(ByteBuffer dst)
+    {
+        ByteBuffer src = buffer.duplicate();
+        src.limit(position);
+        src.position(start);
+        dst.put(src);
+    }
+
+    // ********* Primitives ********************************* //
+
+    public ZFrameEncoder putByte(byte value)
+    {
+        ensure(1);
+        putAt(position++, value);
+        return this;
+    }
+
+    public ZFrameEncoder putBoolean(boolean value)
+    {
+        return putByte(value ? (byte) 1 : (byte) 0);
+    }
+
+    public ZFrameEncoder putShort(short value)
+    {
+        return putBits(value, 2);
+    }
+
+    public ZFrameEncoder putInt(int value)
+    {
+        return putBits(value, 4);
+    }
+
+    public ZFrameEncoder putLong(long value)
+    {
+        return putBits(value, 8);
+    }
+
+    public ZFrameEncoder putFloat(float value)
+    {
+        return putBits(Float.floatToRawIntBits(value), 4);
+    }
+
+    public ZFrameEncoder putDouble(double value)
+    {
+        return putBits(Double.doubleToRawLongBits(value), 8);
+    }
+
+    private ZFrameEncoder putBits(long value, int length)
+    {
+        ensure(length);
+        for (int i = length - 1; i >= 0; i--)
+            putAt(position++, (byte) (value >>> 8 * i));
+        return this;
+    }
+
+    // ********* Variable length integers ******************* //
+
+    /**
+     * Writes an int as an unsigned base 128 varint, taking 1 byte for values
+     * below 128 and up to 5 bytes; negative values take 5 bytes, use
+     * putSignedVarInt() for them.
+     * @param value
+     *            value to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putVarInt(int value)
+    {
+        return putVarLong(value & 0xffffffffL);
+    }
+
+    /**
+     * Writes a long as an unsigned base 128 varint, of 1 to 10 bytes.
+     * @param value
+     *            value to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putVarLong(long value)
+    {
+        ensure((64 - Long.numberOfLeadingZeros(value | 1) + 6) / 7);
+        while ((value & ~0x7fL) != 0) {
+            putAt(position++, (byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        putAt(position++, (byte) value);
+        return this;
+    }
+
+    /**
+     * Writes an int as a zigzag varint, so that values close to zero, negative
+     * or not, take few bytes.
+     * @param value
+     *            value to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putSignedVarInt(int value)
+    {
+        return putVarInt(value << 1 ^ value >> 31);
+    }
+
+    /**
+     * Writes a long as a zigzag varint.
+     * @param value
+     *            value to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putSignedVarLong(long value)
+    {
+        return putVarLong(value << 1 ^ value >> 63);
+    }
+
+    // ********* Strings and arrays ************************* //
+
+    /**
+     * Writes a string in UTF-8, after its size in bytes as a varint, without
+     * allocating an intermediate array. Null is written as an empty string.
+     * @param value
+     *            string to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putString(CharSequence value)
+    {
+        if (value == null)
+            return putVarInt(0);
+        int length = value.length();
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                size++;
+            else if (c < 0x800)
+                size += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 4;
+                i++;
+            }
+            else
+                size += 3;
+        }
+        putVarInt(size);
+        ensure(size);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                putAt(position++, (byte) c);
+            }
+            else if (c < 0x800) {
+                putAt(position++, (byte) (0xc0 | c >> 6));
+                putAt(position++, (byte) (0x80 | c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                putAt(position++, (byte) (0xf0 | cp >> 18));
+                putAt(position++, (byte) (0x80 | cp >> 12 & 0x3f));
+                putAt(position++, (byte) (0x80 | cp >> 6 & 0x3f));
+                putAt(position++, (byte) (0x80 | cp & 0x3f));
+            }
+            else {
+                // Lone surrogates are written as they are, as by CESU-8
+                putAt(position++, (byte) (0xe0 | c >> 12));
+                putAt(position++, (byte) (0x80 | c >> 6 & 0x3f));
+                putAt(position++, (byte) (0x80 | c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes bytes after their count as a varint.
+     * @param value
+     *            bytes to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putBytes(byte[] value)
+    {
+        return putBytes(value, 0, value.length);
+    }
+
+    /**
+     * Writes bytes after their count as a varint.
+     * @param value
+     *            array holding the bytes to write
+     * @param offset
+     *            start of the bytes in the array
+     * @param length
+     *            number of bytes to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putBytes(byte[] value, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > value.length)
+            throw new IndexOutOfBoundsException();
+        putVarInt(length);
+        ensure(length);
+        if (array != null) {
+            System.arraycopy(value, offset, array, buffer.arrayOffset() + position, length);
+        }
+        else {
+            buffer.position(position);
+            buffer.put(value, offset, length);
+            buffer.position(0);
+        }
+        position += length;
+        return this;
+    }
+
+    /**
+     * Writes ints after their count as a varint.
+     * @param value
+     *            ints to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putInts(int[] value)
+    {
+        putVarInt(value.length);
+        ensure(value.length * 4L);
+        for (int v : value)
+            putBits(v, 4);
+        return this;
+    }
+
+    /**
+     * Writes longs after their count as a varint.
+     * @param value
+     *            longs to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putLongs(long[] value)
+    {
+        putVarInt(value.length);
+        ensure(value.length * 8L);
+        for (long v : value)
+            putBits(v, 8);
+        return this;
+    }
+
+    /**
+     * Writes doubles after their count as a varint.
+     * @param value
+     *            doubles to write
+     * @return this encoder
+     */
+    public ZFrameEncoder putDoubles(double[] value)
+    {
+        putVarInt(value.length);
+        ensure(value.length * 8L);
+        for (double v : value)
+            putBits(Double.doubleToRawLongBits(v), 8);
+        return this;
+    }
+
+    // ********* Buffer ************************************* //
+
+    private void putAt(int index, byte value)
+    {
+        if (array != null)
+            array[buffer.arrayOffset() + index] = value;
+        else
+            buffer.put(index, value);
+    }
+
+    private void ensure(long length)
+    {
+        long needed = position + length;
+        if (needed <= buffer.limit())
+            return;
+        if (!growable || needed > Integer.MAX_VALUE - 8)
+            throw new BufferOverflowException();
+        long capacity = Math.max(buffer.capacity(), 16);
+        while (capacity < needed)
+            capacity *= 2;
+        ByteBuffer grown = direct ? ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE - 8))
+                : ByteBuffer.allocate((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        ByteBuffer src = buffer.duplicate();
+        src.limit(position);
+        src.position(0);
+        grown.put(src);
+        grown.clear();
+        buffer = grown;
+        array = direct ? null : grown.array();
+    }
+}
@@ -0,0 +1,447 @@
+package org.zeromq;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Map from peer identities, such as the first frame of messages received on a ROUTER socket, to per-peer state.
+ * Lookups take the identity straight from a received frame, an array region or a buffer, and neither hash nor copy
+ * it into a key object, so routing a message to its peer's state allocates nothing.
+ *
+ * Entries live in flat arrays with open addressing and linear probing. The hash of each key is stored next to it, so
+ * a probe compares bytes only when the hashes match. Removal shifts later entries back instead of leaving tombstones.
+ *
+ * <pre>
+ * ZIdentityTable&lt;Peer&gt; peers = new ZIdentityTable&lt;Peer&gt;();
+ * ZMsg msg = ZMsg.recvMsg(router);
+ * ZFrame identity = msg.unwrap();
+ * Peer peer = peers.get(identity);
+ * if (peer == null)
+ *     peers.put(identity, peer = new Peer());
+ * ...
+ * reply.wrap(peers.intern(identity));
+ * </pre>
+ *
+ * A ZIdentityTable is not thread-safe, like the socket whose peers it tracks.
+ */
+public class ZIdentityTable<V>
+{
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[][] keys;
+    private int[] hashes;
+    private Object[] values;
+    // Frames of interned keys, created on demand
+    private ZFrame[] frames;
+    private int mask;
+    private int size;
+
+    public ZIdentityTable()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected
+     *            number of identities to hold without resizing
+     */
+    public ZIdentityTable(int expected)
+    {
+        if (expected < 0)
+            throw new IllegalArgumentException("expected must not be negative");
+        allocate(slotsFor(expected));
+    }
+
+    // Keeps the table at most two thirds full, so that probes stay short
+    private static int slotsFor(int entries)
+    {
+        long needed = Math.max(DEFAULT_CAPACITY, (long) entries * 3 / 2 + 1);
+        if (needed > 1 << 30)
+            throw new IllegalArgumentException("Too many entries: " + entries);
+        int slots = Integer.highestOneBit((int) needed);
+        return slots < needed ? slots << 1 : slots;
+    }
+
+    private void allocate(int slots)
+    {
+        keys = new byte[slots][];
+        hashes = new int[slots];
+        values = new Object[slots];
+        frames = null;
+        mask = slots - 1;
+    }
+
+    /**
+     * @return number of identities in the table
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return true if the table holds no identity
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Removes all identities.
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        if (frames != null)
+            Arrays.fill(frames, null);
+        size = 0;
+    }
+
+    // ********* Lookups ************************************ //
+
+    /**
+     * @param identity
+     *            identity to look up
+     * @return the value of the identity, or null if it is not in the table
+     */
+    public V get(byte[] identity)
+    {
+        return get(identity, 0, identity.length);
+    }
+
+    /**
+     * @param identity
+     *            array holding the identity
+     * @param offset
+     *            start of the identity in the array
+     * @param length
+     *            size of the identity in bytes
+     * @return the value of the identity, or null if it is not in the table
+     */
+    public V get(byte[] identity, int offset, int length)
+    {
+        return valueAt(indexOf(identity, offset, length));
+    }
+
+    /**
+     * @param identity
+     *            buffer holding the identity between its position and its limit
+     * @return the value of the identity, or null if it is not in the table
+     */
+    public V get(ByteBuffer identity)
+    {
+        return valueAt(indexOf(identity));
+    }
+
+    /**
+     * @param identity
+     *            frame holding the identity, heap or direct
+     * @return the value of the identity, or null if it is not in the table
+     */
+    public V get(ZFrame identity)
+    {
+        return valueAt(indexOf(identity));
+    }
+
+    /**
+     * @param identity
+     *            identity to look up
+     * @return true if the table holds the identity, with a value or not
+     */
+    public boolean containsKey(byte[] identity)
+    {
+        return indexOf(identity, 0, identity.length) >= 0;
+    }
+
+    /**
+     * @param identity
+     *            frame holding the identity, heap or direct
+     * @return true if the table holds the identity, with a value or not
+     */
+    public boolean containsKey(ZFrame identity)
+    {
+        return indexOf(identity) >= 0;
+    }
+
+    // ********* Updates ************************************ //
+
+    /**
+     * Maps an identity to a value. The table keeps the array itself as the key,
+     * which must not be modified afterwards.
+     * @param identity
+     *            identity to add
+     * @param value
+     *            value of the identity, may be null
+     * @return the previous value of the identity, or null if it had none
+     */
+    public V put(byte[] identity, V value)
+    {
+        int index = indexOf(identity, 0, identity.length);
+        if (index >= 0)
+            return replace(index, value);
+        insert(identity, hash(identity, 0, identity.length), value);
+        return null;
+    }
+
+    /**
+     * Maps the identity held by a frame to a value. The table keeps a copy of
+     * the identity, so the frame may be reused or destroyed afterwards.
+     * @param identity
+     *            frame holding the identity to add, heap or direct
+     * @param value
+     *            value of the identity, may be null
+     * @return the previous value of the identity, or null if it had none
+     */
+    public V put(ZFrame identity, V value)
+    {
+        int index = indexOf(identity);
+        if (index >= 0)
+            return replace(index, value);
+        insert(copyOf(identity), hashOf(identity), value);
+        return null;
+    }
+
+    /**
+     * Removes an identity.
+     * @param identity
+     *            identity to remove
+     * @return the value of the identity, or null if it had none
+     */
+    public V remove(byte[] identity)
+    {
+        return removeAt(indexOf(identity, 0, identity.length));
+    }
+
+    /**
+     * Removes the identity held by a frame.
+     * @param identity
+     *            frame holding the identity to remove, heap or direct
+     * @return the value of the identity, or null if it had none
+     */
+    public V remove(ZFrame identity)
+    {
+        return removeAt(indexOf(identity));
+    }
+
+    /**
+     * Returns a frame holding the identity held by another one, sharing the
+     * data of the copy kept by the table instead of copying it. Messages sent
+     * to a peer can then be addressed with ZMsg.wrap(), without keeping the
+     * received identity frame or allocating a new array for each of them.
+     * The identity is added with a null value if it was not in the table.
+     * @param identity
+     *            frame holding the identity, heap or direct
+     * @return a new frame sharing the table's copy of the identity, which may be
+     *         sent and destroyed like any frame
+     */
+    public ZFrame intern(ZFrame identity)
+    {
+        int index = indexOf(identity);
+        if (index < 0) {
+            insert(copyOf(identity), hashOf(identity), null);
+            index = indexOf(identity);
+        }
+        if (frames == null)
+            frames = new ZFrame[keys.length];
+        ZFrame frame = frames[index];
+        if (frame == null) {
+            // Never sent, received into or destroyed, so its data stays that
+            // of the key
+            frame = new ZFrame(keys[index]);
+            frames[index] = frame;
+        }
+        return frame.duplicate();
+    }
+
+    // ********* Hashing ************************************ //
+
+    private static int mix(int h)
+    {
+        // Spreads the polynomial hash over the low bits used as index
+        h *= 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length)
+    {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + bytes[i];
+        return mix(h);
+    }
+
+    private static int hash(ByteBuffer bytes, int offset, int length)
+    {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + bytes.get(i);
+        return mix(h);
+    }
+
+    private static byte[] copyOf(ZFrame frame)
+    {
+        if (!frame.hasData())
+            return EMPTY;
+        // Already a copy for a direct frame
+        return frame.isDirect() ? frame.getData() : frame.getData().clone();
+    }
+
+    private static int hashOf(ZFrame frame)
+    {
+        ByteBuffer buffer = frame.directBuffer();
+        if (buffer != null)
+            return hash(buffer, 0, buffer.limit());
+        byte[] data = frame.hasData() ? frame.getData() : EMPTY;
+        return hash(data, 0, data.length);
+    }
+
+    // ********* Probing ************************************ //
+
+    private int indexOf(byte[] identity, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > identity.length)
+            throw new IndexOutOfBoundsException();
+        int h = hash(identity, offset, length);
+        for (int i = h & mask;; i = i + 1 & mask) {
+            byte[] key = keys[i];
+            if (key == null)
+                return -1;
+            if (hashes[i] == h && key.length == length && regionEquals(key, identity, offset))
+                return i;
+        }
+    }
+
+    private int indexOf(ByteBuffer identity, int offset, int length)
+    {
+        int h = hash(identity, offset, length);
+        for (int i = h & mask;; i = i + 1 & mask) {
+            byte[] key = keys[i];
+            if (key == null)
+                return -1;
+            if (hashes[i] == h && key.length == length && regionEquals(key, identity, offset))
+                return i;
+        }
+    }
+
+    private int indexOf(ByteBuffer identity)
+    {
+        if (identity.hasArray())
+            return indexOf(identity.array(), identity.arrayOffset() + identity.position(), identity.remaining());
+        return indexOf(identity, identity.position(), identity.remaining());
+    }
+
+    private int indexOf(ZFrame identity)
+    {
+        ByteBuffer buffer = identity.directBuffer();
+        if (buffer != null)
+            return indexOf(buffer, 0, buffer.limit());
+        byte[] data = identity.hasData() ? identity.getData() : EMPTY;
+        return indexOf(data, 0, data.length);
+    }
+
+    private static boolean regionEquals(byte[] key, byte[] bytes, int offset)
+    {
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(byte[] key, ByteBuffer bytes, int offset)
+    {
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes.get(offset + i))
+                return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index)
+    {
+        return index < 0 ? null : (V) values[index];
+    }
+
+    private V replace(int index, V value)
+    {
+        V previous = valueAt(index);
+        values[index] = value;
+        return previous;
+    }
+
+    private void insert(byte[] key, int h, V value)
+    {
+        if ((size + 1) * 3L > keys.length * 2L)
+            resize(keys.length * 2);
+        int i = h & mask;
+        while (keys[i] != null)
+            i = i + 1 & mask;
+        keys[i] = key;
+        hashes[i] = h;
+        values[i] = value;
+        size++;
+    }
+
+    private void resize(int slots)
+    {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        ZFrame[] oldFrames = frames;
+        allocate(slots);
+        if (oldFrames != null)
+            frames = new ZFrame[slots];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null)
+                continue;
+            int i = oldHashes[j] & mask;
+            while (keys[i] != null)
+                i = i + 1 & mask;
+            keys[i] = oldKeys[j];
+            hashes[i] = oldHashes[j];
+            values[i] = oldValues[j];
+            if (oldFrames != null)
+                frames[i] = oldFrames[j];
+        }
+    }
+
+    private V removeAt(int index)
+    {
+        if (index < 0)
+            return null;
+        V value = valueAt(index);
+        size--;
+        // Moves back the entries that probed past the freed slot, so that
+        // lookups can stop at the first empty slot
+        int free = index;
+        for (int i = index + 1 & mask; keys[i] != null; i = i + 1 & mask) {
+            int home = hashes[i] & mask;
+            // The entry may move to the free slot if its home slot is not
+            // cyclically between the free slot, excluded, and its own slot
+            boolean stays = free <= i ? free < home && home <= i : free < home || home <= i;
+            if (!stays) {
+                move(i, free);
+                free = i;
+            }
+        }
+        keys[free] = null;
+        values[free] = null;
+        if (frames != null)
+            frames[free] = null;
+        return value;
+    }
+
+    private void move(int from, int to)
+    {
+        keys[to] = keys[from];
+        hashes[to] = hashes[from];
+        values[to] = values[from];
+        if (frames != null)
+            frames[to] = frames[from];
+    }
+}
@@ -20,16 +20,27 @@
 package org.zeromq;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.zeromq.ZMQ.PollItem;
 import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
 
 /**
  * The ZLoop class provides an event-driven reactor pattern. The reactor handles zmq.PollItem items (pollers or writers,
  * sockets or fds), and once-off or repeated timers. Its resolution is 1 msec. It uses a tickless timer to reduce CPU
  * interrupts in inactive processes.
+ *
+ * A ZLoop belongs to the thread that runs start(), and its methods must only be called from that thread, except
+ * execute() and schedule(), which any thread may call. Loops created with a ZContext wake up as soon as work is
+ * handed to them that way.
  */
 
 public class ZLoop {
@@ -43,6 +54,7 @@ public class ZLoop {
         IZLoopHandler handler;
         Object arg;
         int errors; // If too many errors, kill poller
+        int slot; // Index of the item in the poll set
 
         protected SPoller(PollItem item, IZLoopHandler handler, Object arg) {
             this.item = item;
@@ -55,82 +67,374 @@ public class ZLoop {
 
     ;
 
-    private class STimer {
-        int delay;
-        int times;
-        IZLoopHandler handler;
-        Object arg;
-        long when; // Clock time when alarm goes off
-
-        public STimer(int delay, int times, IZLoopHandler handler, Object arg) {
-            this.delay = delay;
+    /**
+     * Handle on a registered timer. Cancelling through the handle takes constant time: the timer is only marked
+     * dead, and the reactor drops it when it reaches the head of the timer queue.
+     */
+    public final class Timer {
+        private final long delay; // Delay in nanoseconds
+        private int times;
+        private final IZLoopHandler handler;
+        private final Object arg;
+        private long when; // System.nanoTime() when alarm goes off
+        private volatile boolean live; // False once cancelled or expired for good
+        private boolean queued; // True while held in the timer heap
+        private Timer prevForArg; // Other live timers registered with the same arg
+        private Timer nextForArg;
+
+        private Timer(int delay, int times, IZLoopHandler handler, Object arg) {
+            this.delay = delay * 1000000L;
             this.times = times;
             this.handler = handler;
             this.arg = arg;
-            this.when = -1;
+            this.live = true;
         }
 
+        /**
+         * Cancel the timer. Does nothing if the timer was already cancelled or has expired.
+         */
+        public void cancel() {
+            cancelTimer(this);
+        }
+
+        /**
+         * @return true if the timer will not fire again, because it was cancelled or ran its number of times
+         */
+        public boolean isCancelled() {
+            return !live;
+        }
     }
 
-    private final List<SPoller> pollers; // List of poll items
-    private final List<STimer> timers; // List of timers
-    private int pollSize; // Size of poll set
-    private Poller pollset; // zmq_poll set
-    private SPoller[] pollact; // Pollers for this poll set
-    private boolean dirty; // True if pollset needs rebuilding
+    private final Poller pollset; // zmq_poll set
+    private SPoller[] pollact; // Pollers for this poll set, indexed by slot
+    private int pollSize; // Number of pollers in the poll set
+    private boolean dispatching; // True while poller handlers are running
+    private final List<SPoller> newPollers; // Pollers added while dispatching
+    private final List<SPoller> deadPollers; // Pollers removed while dispatching
     private boolean verbose; // True if verbose tracing wanted
-    private final List<Object> zombies; // List of timers to kill
-    private final List<STimer> newTimers; // List of timers to add
+    private int readBudget; // Max handler calls per readable socket per wakeup
+    private long readSlice; // Max nanoseconds spent draining one socket, 0 if unbounded
+    private ZLoopMetrics metrics; // Null unless metrics are enabled
+    private Timer[] timers; // Binary min-heap of timers, ordered on when
+    private int timerCount; // Number of timers in the heap
+    private int deadTimers; // Number of cancelled timers still in the heap
+    private final List<Timer> newTimers; // List of timers to add
+    private final List<Timer> rearmed; // Timers to put back in the heap after a pass
+    private final Map<Object, Timer> timersByArg; // First live timer for each arg
+    private final Queue<Runnable> tasks; // Work handed over by other threads
+    private final AtomicBoolean signalled; // True while a wakeup is in flight
+    private final ZContext ctx; // Context of the wakeup sockets, or null
+    private Socket wakeup; // Read by the reactor when tasks are handed over
+    private Socket signal; // Written by other threads, guarded by itself
+    private volatile Thread owner; // Thread running the reactor, if started
+
+    private static final AtomicInteger loopIds = new AtomicInteger();
+    private static final byte[] WAKEUP = new byte[0];
+
+    // Runs the tasks of schedule(), passed as the timer argument, so that
+    // they all share one handler and one entry in the metrics
+    private static final IZLoopHandler TASK = new IZLoopHandler() {
+        @Override
+        public int handle(ZLoop loop, PollItem item, Object arg) {
+            ((Runnable) arg).run();
+            return 0;
+        }
+    };
+
+    // Reads the wakeup signals, the tasks themselves are run before each poll
+    private final IZLoopHandler wakeupHandler = new IZLoopHandler() {
+        @Override
+        public int handle(ZLoop loop, PollItem item, Object arg) {
+            while (wakeup.recv(ZMQ.DONTWAIT) != null)
+                ;
+            // From now on a new task must send a fresh wakeup
+            signalled.set(false);
+            return 0;
+        }
+    };
 
     public ZLoop() {
-        pollers = new ArrayList<SPoller>();
-        timers = new ArrayList<STimer>();
-        zombies = new ArrayList<Object>();
-        newTimers = new ArrayList<STimer>();
+        this(null);
+    }
+
+    // --------------------------------------------------------------------------
+    // Create a reactor that other threads can wake up through execute() and
+    // schedule(), using an inproc PAIR socket pair created in the given
+    // context.
+
+    public ZLoop(ZContext ctx) {
+        this.ctx = ctx;
+        pollset = new Poller(16);
+        pollact = new SPoller[16];
+        newPollers = new ArrayList<SPoller>();
+        deadPollers = new ArrayList<SPoller>();
+        timers = new Timer[16];
+        newTimers = new ArrayList<Timer>();
+        rearmed = new ArrayList<Timer>();
+        timersByArg = new IdentityHashMap<Object, Timer>();
+        readBudget = 1;
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        signalled = new AtomicBoolean(false);
+
+        if (ctx != null) {
+            String endpoint = String.format("inproc://zloop-wakeup-%d", loopIds.incrementAndGet());
+            wakeup = ctx.createSocket(ZMQ.PAIR);
+            wakeup.bind(endpoint);
+            signal = ctx.createSocket(ZMQ.PAIR);
+            signal.connect(endpoint);
+            addPoller(new PollItem(wakeup, Poller.POLLIN), wakeupHandler, null);
+        }
     }
 
     public void destroy() {
-        // do nothing
+        if (ctx != null && wakeup != null) {
+            ctx.destroySocket(wakeup);
+            ctx.destroySocket(signal);
+            wakeup = null;
+            signal = null;
+        }
     }
 
-    // We hold an array of pollers that matches the pollset, so we can
-    // register/cancel pollers orthogonally to executing the pollset
-    // activity on pollers. Returns 0 on success, -1 on failure.
+    // --------------------------------------------------------------------------
+    // Run a task on the reactor thread, before the reactor next polls. Any
+    // thread may call this. If the reactor is running on another thread, it
+    // must have been created with a ZContext so that it can be woken up.
+    // Tasks handed over before start() run when the reactor starts.
+
+    public void execute(Runnable task) {
+        if (task == null)
+            throw new IllegalArgumentException("task is null");
+
+        Thread current = owner;
+        if (current == Thread.currentThread()) {
+            // Drained before the next poll, no need to wake ourselves up
+            tasks.add(task);
+            return;
+        }
+        if (signal == null && current != null)
+            throw new IllegalStateException("ZLoop needs a ZContext to be woken up by other threads");
 
-    private void rebuild() {
-        pollact = null;
+        tasks.add(task);
+        if (signal != null && signalled.compareAndSet(false, true)) {
+            synchronized (signal) {
+                signal.send(WAKEUP, 0);
+            }
+        }
+    }
 
-        pollSize = pollers.size();
-        pollset = new Poller(pollSize);
+    // --------------------------------------------------------------------------
+    // Run a task on the reactor thread after some delay, in msecs. Any thread
+    // may call this, as for execute(). The returned timer can be cancelled
+    // from any thread.
+
+    public Timer schedule(int delay, Runnable task) {
+        if (task == null)
+            throw new IllegalArgumentException("task is null");
+
+        final Timer timer = new Timer(delay, 1, TASK, task);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (timer.live)
+                    addTimer(timer);
+            }
+        });
+        return timer;
+    }
 
-        pollact = new SPoller[pollSize];
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+    }
 
-        int itemNbr = 0;
-        for (SPoller poller : pollers) {
-            pollset.register(poller.item);
-            pollact[itemNbr] = poller;
-            itemNbr++;
+    // We hold an array of pollers that matches the pollset slot for slot.
+    // Changes are applied to the pollset in place, and the poller reuses
+    // freed slots. While handlers run, changes are held back until the
+    // dispatch pass is over, so that a slot is never reused under the
+    // dispatcher's feet.
+
+    private void registerPoller(SPoller poller) {
+        int slot = pollset.register(poller.item);
+        if (slot >= pollact.length) {
+            SPoller[] grown = new SPoller[Math.max(slot + 1, pollact.length * 2)];
+            System.arraycopy(pollact, 0, grown, 0, pollact.length);
+            pollact = grown;
         }
-        dirty = false;
+        pollact[slot] = poller;
+        poller.slot = slot;
+        pollSize++;
+        if (metrics != null)
+            metrics.pollsetChanged();
+    }
+
+    private void unregisterPoller(SPoller poller) {
+        if (poller.item.getSocket() != null)
+            pollset.unregister(poller.item.getSocket());
+        else
+            pollset.unregister(poller.item.getRawSocket());
+        pollSize--;
+        if (metrics != null)
+            metrics.pollsetChanged();
+    }
+
+    private void applyPollerChanges() {
+        for (int i = 0; i < deadPollers.size(); i++)
+            unregisterPoller(deadPollers.get(i));
+        deadPollers.clear();
+        for (int i = 0; i < newPollers.size(); i++)
+            registerPoller(newPollers.get(i));
+        newPollers.clear();
     }
 
     private long ticklessTimer() {
         // Calculate tickless timer, up to 1 hour
-        long tickless = System.currentTimeMillis() + 1000 * 3600;
-        for (STimer timer : timers) {
-            if (timer.when == -1)
-                timer.when = timer.delay + System.currentTimeMillis();
-            if (tickless > timer.when)
-                tickless = timer.when;
+        long timeout = 1000 * 3600;
+        Timer timer = peekTimer();
+        if (timer != null) {
+            long nanos = timer.when - System.nanoTime();
+            if (nanos <= 0)
+                timeout = 0;
+            else if (nanos < timeout * 1000000L)
+                // Round up, waking early would only make us poll again
+                timeout = (nanos + 999999) / 1000000;
         }
-        long timeout = tickless - System.currentTimeMillis();
-        if (timeout < 0)
-            timeout = 0;
         if (verbose)
             System.out.printf("I: zloop: polling for %d msec\n", timeout);
         return timeout;
     }
 
+    // --------------------------------------------------------------------------
+    // Timer heap. Cancelled timers stay in the heap until they reach the top,
+    // or until they make up half of it, at which point the heap is compacted.
+
+    private void queueTimer(Timer timer) {
+        if (timerCount == timers.length) {
+            Timer[] grown = new Timer[timerCount * 2];
+            System.arraycopy(timers, 0, grown, 0, timerCount);
+            timers = grown;
+        }
+        timer.queued = true;
+        siftUp(timerCount++, timer);
+    }
+
+    private Timer pollTimer() {
+        Timer top = timers[0];
+        Timer last = timers[--timerCount];
+        timers[timerCount] = null;
+        if (timerCount > 0)
+            siftDown(0, last);
+        top.queued = false;
+        return top;
+    }
+
+    // Returns the next live timer without removing it, dropping dead ones on the way
+    private Timer peekTimer() {
+        while (timerCount > 0 && !timers[0].live) {
+            pollTimer();
+            deadTimers--;
+        }
+        return timerCount > 0 ? timers[0] : null;
+    }
+
+    private void siftUp(int pos, Timer timer) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            Timer p = timers[parent];
+            if (p.when - timer.when <= 0)
+                break;
+            timers[pos] = p;
+            pos = parent;
+        }
+        timers[pos] = timer;
+    }
+
+    private void siftDown(int pos, Timer timer) {
+        int half = timerCount >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            Timer c = timers[child];
+            int right = child + 1;
+            if (right < timerCount && c.when - timers[right].when > 0)
+                c = timers[child = right];
+            if (timer.when - c.when <= 0)
+                break;
+            timers[pos] = c;
+            pos = child;
+        }
+        timers[pos] = timer;
+    }
+
+    private void heapify() {
+        for (int pos = (timerCount >>> 1) - 1; pos >= 0; pos--)
+            siftDown(pos, timers[pos]);
+    }
+
+    private void compactTimers() {
+        int live = 0;
+        for (int i = 0; i < timerCount; i++) {
+            Timer timer = timers[i];
+            if (timer.live)
+                timers[live++] = timer;
+            else
+                timer.queued = false;
+        }
+        for (int i = live; i < timerCount; i++)
+            timers[i] = null;
+        timerCount = live;
+        deadTimers = 0;
+        heapify();
+    }
+
+    // Move timers registered since the last pass into the heap
+    private void queueNewTimers(long now) {
+        for (int i = 0; i < newTimers.size(); i++) {
+            Timer timer = newTimers.get(i);
+            if (timer.live) {
+                timer.when = now + timer.delay;
+                queueTimer(timer);
+            }
+        }
+        newTimers.clear();
+    }
+
+    private void cancelTimer(final Timer timer) {
+        Thread current = owner;
+        if (current != null && current != Thread.currentThread()) {
+            // Only the reactor thread may touch its timers
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    cancelTimer(timer);
+                }
+            });
+            return;
+        }
+        if (!timer.live)
+            return;
+        expireTimer(timer);
+        if (timer.queued && ++deadTimers > 32 && deadTimers > timerCount >>> 1)
+            compactTimers();
+    }
+
+    private void expireTimer(Timer timer) {
+        timer.live = false;
+        if (timer.arg == null)
+            return;
+        Timer prev = timer.prevForArg;
+        Timer next = timer.nextForArg;
+        if (prev != null)
+            prev.nextForArg = next;
+        else if (next != null)
+            timersByArg.put(timer.arg, next);
+        else
+            timersByArg.remove(timer.arg);
+        if (next != null)
+            next.prevForArg = prev;
+        timer.prevForArg = null;
+        timer.nextForArg = null;
+    }
+
     // --------------------------------------------------------------------------
     // Register pollitem with the reactor. When the pollitem is ready, will call
     // the handler, passing the arg. Returns 0 if OK, -1 if there was an error.
@@ -144,9 +448,11 @@ public class ZLoop {
             return -1;
 
         SPoller poller = new SPoller(item_, handler, arg);
-        pollers.add(poller);
+        if (dispatching)
+            newPollers.add(poller);
+        else
+            registerPoller(poller);
 
-        dirty = true;
         if (verbose)
             System.out.printf("I: zloop: register %s poller (%s, %s)\n", item.getSocket() != null ? item.getSocket()
                     .getType() : "RAW", item.getSocket(), item.getRawSocket());
@@ -161,13 +467,23 @@ public class ZLoop {
     public void removePoller(PollItem item_) {
         PollItem item = item_;
 
-        Iterator<SPoller> it = pollers.iterator();
+        int limit = pollset.getNext();
+        for (int slot = 0; slot < limit && slot < pollact.length; slot++) {
+            SPoller p = pollact[slot];
+            if (p != null && item.equals(p.item)) {
+                // Stops the poller being dispatched straight away, but
+                // keeps its slot taken until the dispatch pass is over
+                pollact[slot] = null;
+                if (dispatching)
+                    deadPollers.add(p);
+                else
+                    unregisterPoller(p);
+            }
+        }
+        Iterator<SPoller> it = newPollers.iterator();
         while (it.hasNext()) {
-            SPoller p = it.next();
-            if (item.equals(p.item)) {
+            if (item.equals(it.next().item))
                 it.remove();
-                dirty = true;
-            }
         }
         if (verbose)
             System.out.printf("I: zloop: cancel %s poller (%s, %s)", item.getSocket() != null ? item.getSocket()
@@ -182,16 +498,35 @@ public class ZLoop {
     // error.
 
     public int addTimer(int delay, int times, IZLoopHandler handler, Object arg) {
-        STimer timer = new STimer(delay, times, handler, arg);
+        timer(delay, times, handler, arg);
+        return 0;
+    }
+
+    // --------------------------------------------------------------------------
+    // Same as addTimer, but returns a handle that cancels this one timer in
+    // constant time.
 
-        // We cannot touch self->timers because we may be executing that
-        // from inside the poll loop. So, we hold the new timer on the newTimers
-        // list, and process that list when we're done executing timers.
+    public Timer timer(int delay, int times, IZLoopHandler handler, Object arg) {
+        Timer timer = new Timer(delay, times, handler, arg);
+        addTimer(timer);
+        return timer;
+    }
+
+    private void addTimer(Timer timer) {
+        Object arg = timer.arg;
+        // A timer added while we execute timers must not run in the same pass.
+        // So, we hold the new timer on the newTimers list, and process that
+        // list when we're done executing timers.
         newTimers.add(timer);
+        if (arg != null) {
+            Timer first = timersByArg.put(arg, timer);
+            if (first != null) {
+                timer.nextForArg = first;
+                first.prevForArg = timer;
+            }
+        }
         if (verbose)
-            System.out.printf("I: zloop: register timer delay=%d times=%d\n", delay, times);
-
-        return 0;
+            System.out.printf("I: zloop: register timer delay=%d times=%d\n", timer.delay / 1000000, timer.times);
     }
 
     // --------------------------------------------------------------------------
@@ -201,10 +536,14 @@ public class ZLoop {
     public int removeTimer(Object arg) {
         assert (arg != null);
 
-        // We cannot touch self->timers because we may be executing that
-        // from inside the poll loop. So, we hold the arg on the zombie
-        // list, and process that list when we're done executing timers.
-        zombies.add(arg);
+        // Timers sharing an arg are chained together, so this only touches
+        // the timers being cancelled.
+        Timer timer = timersByArg.get(arg);
+        while (timer != null) {
+            Timer next = timer.nextForArg;
+            cancelTimer(timer);
+            timer = next;
+        }
         if (verbose)
             System.out.printf("I: zloop: cancel timer\n");
 
@@ -217,6 +556,80 @@ public class ZLoop {
         this.verbose = verbose;
     }
 
+    // --------------------------------------------------------------------------
+    // Turn on metrics collection, and return the metrics. Call this before
+    // starting the reactor, or from one of its handlers. Until then the
+    // reactor does not even read the clock for metrics.
+
+    public ZLoopMetrics enableMetrics() {
+        if (metrics == null)
+            metrics = new ZLoopMetrics();
+        return metrics;
+    }
+
+    // --------------------------------------------------------------------------
+    // Return the metrics of the reactor, or null if they are not enabled.
+
+    public ZLoopMetrics getMetrics() {
+        return metrics;
+    }
+
+    private int callHandler(IZLoopHandler handler, PollItem item, Object arg) {
+        if (metrics == null)
+            return handler.handle(this, item, arg);
+        long started = System.nanoTime();
+        int rc = handler.handle(this, item, arg);
+        metrics.handled(handler, System.nanoTime() - started);
+        return rc;
+    }
+
+    // --------------------------------------------------------------------------
+    // Set how many times the reactor may call a socket handler per wakeup.
+    // After the first call, the reactor calls the handler again as long as
+    // the socket still reports POLLIN, up to messages calls in all, or until
+    // micros have passed (0 for no time limit), whichever comes first. This
+    // drains busy sockets in batches without a zmq_poll round trip per
+    // message, while the cap stops one busy socket from starving the others.
+    // Handlers must read at most one message per call, or they may block.
+    // The default budget is 1, a single call per wakeup.
+
+    public void setReadBudget(int messages, long micros) {
+        if (messages < 1 || micros < 0)
+            throw new IllegalArgumentException("read budget must be at least one message");
+        readBudget = messages;
+        readSlice = micros * 1000;
+    }
+
+    // Call a readable socket's handler again while it has input, within the
+    // read budget. Returns -1 if the handler signalled break. A handler may
+    // close its socket without cancelling its poller first; the poller is
+    // then cancelled here rather than let the error escape the reactor.
+
+    private int drain(SPoller poller) {
+        Socket socket = poller.item.getSocket();
+        long deadline = readSlice > 0 ? System.nanoTime() + readSlice : 0;
+        for (int calls = 1; calls < readBudget; calls++) {
+            if (pollact[poller.slot] != poller)
+                break; // Handler cancelled its poller
+            long events;
+            try {
+                events = socket.getEvents();
+            } catch (ZMQException e) {
+                if (verbose)
+                    System.out.printf("I: zloop: can't read events of socket (%s)\n", socket);
+                removePoller(poller.item);
+                break;
+            }
+            if (events < 0 || (events & Poller.POLLIN) == 0)
+                break; // No input left, or no ZMQ_EVENTS to tell
+            if (callHandler(poller.handler, poller.item, poller.arg) == -1)
+                return -1;
+            if (deadline != 0 && System.nanoTime() - deadline >= 0)
+                break;
+        }
+        return 0;
+    }
+
     // --------------------------------------------------------------------------
     // Start the reactor. Takes control of the thread and returns when the 0MQ
     // context is terminated or the process is interrupted, or any event handler
@@ -225,26 +638,51 @@ public class ZLoop {
     // handler, positive on internal error
 
     public int start() {
+        owner = Thread.currentThread();
+        try {
+            return run();
+        } finally {
+            owner = null;
+        }
+    }
+
+    private int run() {
         int rc = 0;
 
-        timers.addAll(newTimers);
-        newTimers.clear();
+        // A handler may have thrown out of the last run
+        dispatching = false;
+        applyPollerChanges();
 
         // Recalculate all timers now
-        for (STimer timer : timers) {
-            timer.when = timer.delay + System.currentTimeMillis();
+        long now = System.nanoTime();
+        for (int i = 0; i < timerCount; i++) {
+            timers[i].when = now + timers[i].delay;
         }
+        heapify();
+        queueNewTimers(now);
 
         // Main reactor loop
         while (!Thread.currentThread().isInterrupted()) {
-            if (dirty) {
-                // If s_rebuild_pollset() fails, break out of the loop and
-                // return its error
-                rebuild();
-            }
+            // Run work handed over by other threads, which may add timers
+            runTasks();
+            queueNewTimers(System.nanoTime());
+
             long wait = ticklessTimer();
 
-            rc = pollset.poll(wait);
+            long polled = metrics != null ? System.nanoTime() : 0;
+            if (pollSize == 0) {
+                // Nothing to poll, zmq_poll would return straight away
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                rc = 0;
+            } else
+                rc = pollset.poll(wait);
+            if (metrics != null)
+                metrics.polled(System.nanoTime() - polled, rc);
 
             if (rc == -1) {
                 if (verbose)
@@ -253,28 +691,46 @@ public class ZLoop {
                 break; // Context has been shut down
             }
             // Handle any timers that have now expired
-            Iterator<STimer> it = timers.iterator();
-            while (it.hasNext()) {
-                STimer timer = it.next();
-                if (System.currentTimeMillis() >= timer.when && timer.when != -1) {
-                    if (verbose)
-                        System.out.println("I: zloop: call timer handler");
-                    rc = timer.handler.handle(this, null, timer.arg);
-                    if (rc == -1)
-                        break; // Timer handler signalled break
-                    if (timer.times != 0 && --timer.times == 0) {
-                        it.remove();
-                    } else
-                        timer.when = timer.delay + System.currentTimeMillis();
+            now = System.nanoTime();
+            Timer timer;
+            while ((timer = peekTimer()) != null && timer.when - now <= 0) {
+                pollTimer();
+                if (verbose)
+                    System.out.println("I: zloop: call timer handler");
+                if (metrics != null)
+                    metrics.timerFired(System.nanoTime() - timer.when);
+                rc = callHandler(timer.handler, null, timer.arg);
+                if (rc == -1) {
+                    if (timer.live)
+                        queueTimer(timer);
+                    break; // Timer handler signalled break
+                }
+                if (!timer.live)
+                    continue; // Handler cancelled its own timer
+                if (timer.times != 0 && --timer.times == 0)
+                    expireTimer(timer);
+                else {
+                    timer.when = timer.delay + System.nanoTime();
+                    rearmed.add(timer);
                 }
             }
+            for (int i = 0; i < rearmed.size(); i++) {
+                timer = rearmed.get(i);
+                if (timer.live)
+                    queueTimer(timer);
+            }
+            rearmed.clear();
             if (rc == -1)
                 break; // Some timer signalled break from the reactor loop
 
             // Handle any pollers that are ready
-            for (int itemNbr = 0; itemNbr < pollSize; itemNbr++) {
+            dispatching = true;
+            int limit = pollset.getNext();
+            for (int itemNbr = 0; itemNbr < limit; itemNbr++) {
                 SPoller poller = pollact[itemNbr];
-                if (pollset.getItem(itemNbr).isError()) {
+                if (poller == null)
+                    continue; // Free slot, or poller cancelled during this pass
+                if (poller.item.isError()) {
                     if (verbose)
                         System.out.printf("I: zloop: can't poll %s socket (%s, %s)",
                                 poller.item.getSocket() != null ? poller.item.getSocket().getType() : "RAW",
@@ -287,31 +743,23 @@ public class ZLoop {
                 } else
                     poller.errors = 0; // A non-error happened
 
-                if (pollset.getItem(itemNbr).readyOps() > 0) {
+                if (poller.item.readyOps() > 0) {
                     if (verbose)
                         System.out.printf("I: zloop: call %s socket handler (%s, %s)\n",
                                 poller.item.getSocket() != null ? poller.item.getSocket().getType() : "RAW",
                                 poller.item.getSocket(), poller.item.getRawSocket());
-                    rc = poller.handler.handle(this, poller.item, poller.arg);
+                    rc = callHandler(poller.handler, poller.item, poller.arg);
+                    if (rc != -1 && readBudget > 1 && poller.item.isReadable() && poller.item.getSocket() != null)
+                        rc = drain(poller);
                     if (rc == -1)
                         break; // Poller handler signalled break
                 }
             }
+            dispatching = false;
+            applyPollerChanges();
 
-            // Now handle any timer zombies
-            // This is going to be slow if we have many zombies
-            for (Object arg : zombies) {
-                it = timers.iterator();
-                while (it.hasNext()) {
-                    STimer timer = it.next();
-                    if (timer.arg == arg) {
-                        it.remove();
-                    }
-                }
-            }
             // Now handle any new timers added inside the loop
-            timers.addAll(newTimers);
-            newTimers.clear();
+            queueNewTimers(System.nanoTime());
 
             if (rc == -1)
                 break;
@@ -0,0 +1,275 @@
+/*
+    Copyright other contributors as noted in the AUTHORS file.
+
+    This file is part of 0MQ.
+
+    0MQ is free software; you can redistribute it and/or modify it under
+    the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 3 of the License, or
+    (at your option) any later version.
+
+    0MQ is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.zeromq;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+import org.zeromq.ZMQ.PollItem;
+
+/**
+ * The ZLoopGroup class runs a fixed number of ZLoop reactors, each on its own thread, so that the reactor pattern can
+ * scale across cores. Sockets are sharded over the loops by key, or placed on a loop explicitly by index.
+ *
+ * Each loop keeps its sockets confined to its own thread. A socket created on another thread is handed off with
+ * addPoller(), after which the creating thread must not touch it again; the handoff goes through a queue, which
+ * provides the memory barrier 0MQ requires when a socket migrates between threads. Any other work that has to run on
+ * a loop's thread, such as sending on one of its sockets, goes through execute(), which hands it to ZLoop.execute().
+ */
+public class ZLoopGroup implements Closeable {
+
+    /**
+     * Hook to bind reactor threads to CPUs, e.g. through a native affinity library.
+     */
+    public static interface ICpuAffinity {
+        /**
+         * Called on each reactor thread before its loop starts.
+         *
+         * @param index index of the loop in the group
+         * @param thread the reactor thread, which is the current thread
+         */
+        public void bind(int index, Thread thread);
+    }
+
+    private final class Member implements Runnable {
+        private final int index;
+        private final ZLoop loop;
+        private Thread thread;
+
+        private Member(int index) {
+            this.index = index;
+            this.loop = new ZLoop(ctx);
+        }
+
+        @Override
+        public void run() {
+            if (affinity != null)
+                affinity.bind(index, Thread.currentThread());
+            loop.start();
+        }
+    }
+
+    private static final ZLoop.IZLoopHandler STOP = new ZLoop.IZLoopHandler() {
+        @Override
+        public int handle(ZLoop loop, PollItem item, Object arg) {
+            return -1;
+        }
+    };
+
+    private final ZContext ctx;
+    private final Member[] members;
+    private final ICpuAffinity affinity;
+    private boolean started;
+    private boolean destroyed;
+
+    /**
+     * Class constructor.
+     *
+     * @param ctx context used to create the sockets that wake up each loop
+     * @param size number of loops, and so of reactor threads
+     */
+    public ZLoopGroup(ZContext ctx, int size) {
+        this(ctx, size, null);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param ctx context used to create the sockets that wake up each loop
+     * @param size number of loops, and so of reactor threads
+     * @param affinity hook called on each reactor thread before its loop starts, or null
+     */
+    public ZLoopGroup(ZContext ctx, int size, ICpuAffinity affinity) {
+        if (ctx == null)
+            throw new IllegalArgumentException("ctx is null");
+        if (size <= 0)
+            throw new IllegalArgumentException("size must be positive");
+
+        this.ctx = ctx;
+        this.affinity = affinity;
+        this.members = new Member[size];
+        for (int i = 0; i < size; i++)
+            members[i] = new Member(i);
+    }
+
+    /**
+     * Starts one reactor thread per loop.
+     */
+    public synchronized void start() {
+        if (destroyed)
+            throw new IllegalStateException("ZLoopGroup destroyed");
+        if (started)
+            throw new IllegalStateException("ZLoopGroup already started");
+        started = true;
+        for (Member member : members) {
+            member.thread = new Thread(member, "zloop-" + member.index);
+            member.thread.start();
+        }
+    }
+
+    /**
+     * @return the number of loops in the group
+     */
+    public int size() {
+        return members.length;
+    }
+
+    /**
+     * Returns a loop of the group. Only its own reactor thread may use it once the group has started; use executeOn()
+     * to get there.
+     *
+     * @param index index of the loop
+     * @return the loop
+     */
+    public ZLoop loop(int index) {
+        return members[index].loop;
+    }
+
+    /**
+     * Picks the loop for a key, e.g. a peer or session id. A byte[] key, such as a ROUTER identity, is hashed by
+     * content, so equal identities received in different arrays map to the same loop.
+     *
+     * @param key sharding key, must not be null
+     * @return index of the loop that owns the key
+     */
+    public int indexFor(Object key) {
+        if (key instanceof byte[])
+            return indexFor((byte[]) key);
+        return indexFor(key.hashCode());
+    }
+
+    /**
+     * Picks the loop for a binary key, such as a ROUTER identity. Keys are compared by content.
+     *
+     * @param key sharding key, must not be null
+     * @return index of the loop that owns the key
+     */
+    public int indexFor(byte[] key) {
+        return indexFor(Arrays.hashCode(key));
+    }
+
+    private int indexFor(int hash) {
+        // Spread the high bits, as poor hashes often differ only there
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % members.length;
+    }
+
+    /**
+     * Runs a task on the thread of a loop. Unlike execute(), which takes a sharding key, this picks the loop by its
+     * index.
+     *
+     * @param index index of the loop
+     * @param task task to run
+     */
+    public void executeOn(int index, Runnable task) {
+        members[index].loop.execute(task);
+    }
+
+    /**
+     * Runs a task on the thread of the loop that owns a key.
+     *
+     * @param key sharding key
+     * @param task task to run
+     */
+    public void execute(Object key, Runnable task) {
+        executeOn(indexFor(key), task);
+    }
+
+    /**
+     * Hands a poll item off to a loop, which registers it from its own thread. After this call the caller must no
+     * longer use the socket behind the item.
+     *
+     * @param index index of the loop
+     * @param item item to poll
+     * @param handler handler called by the loop when the item is ready
+     * @param arg argument passed to the handler
+     */
+    public void addPollerOn(int index, final PollItem item, final ZLoop.IZLoopHandler handler, final Object arg) {
+        final ZLoop loop = loop(index);
+        executeOn(index, new Runnable() {
+            @Override
+            public void run() {
+                loop.addPoller(item, handler, arg);
+            }
+        });
+    }
+
+    /**
+     * Hands a poll item off to the loop that owns a key.
+     *
+     * @param key sharding key
+     * @param item item to poll
+     * @param handler handler called by the loop when the item is ready
+     * @param arg argument passed to the handler
+     */
+    public void addPoller(Object key, PollItem item, ZLoop.IZLoopHandler handler, Object arg) {
+        addPollerOn(indexFor(key), item, handler, arg);
+    }
+
+    /**
+     * Cancels a poll item on a loop, from the loop's own thread.
+     *
+     * @param index index of the loop
+     * @param item item to cancel
+     */
+    public void removePollerOn(int index, final PollItem item) {
+        final ZLoop loop = loop(index);
+        executeOn(index, new Runnable() {
+            @Override
+            public void run() {
+                loop.removePoller(item);
+            }
+        });
+    }
+
+    /**
+     * Stops every loop, waits for the reactor threads to end and closes the wakeup sockets. The group cannot be
+     * started again.
+     */
+    public synchronized void destroy() {
+        destroyed = true;
+        if (started) {
+            for (final Member member : members) {
+                member.loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A handler returning -1 ends the reactor
+                        member.loop.addTimer(0, 1, STOP, null);
+                    }
+                });
+            }
+            for (Member member : members) {
+                try {
+                    member.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            started = false;
+        }
+        for (Member member : members)
+            member.loop.destroy();
+    }
+
+    @Override
+    public void close() {
+        destroy();
+    }
+}
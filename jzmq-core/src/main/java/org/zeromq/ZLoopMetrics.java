@@ -0,0 +1,281 @@
+package org.zeromq;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a ZLoop reactor: where its time goes (polling versus running handlers), how late timers fire, how long
+ * each kind of handler takes, and how many events each wakeup brings. Handler latency is kept per handler class, not
+ * per instance, so that handlers created on the fly, such as those behind ZLoop.schedule(), share one histogram. Metrics are only collected once enabled with
+ * {@link ZLoop#enableMetrics()}, so a loop without them pays nothing.
+ *
+ * The reactor thread records, any thread may read a {@link Snapshot} or register the metrics with JMX.
+ */
+public class ZLoopMetrics implements ZLoopMetricsMBean {
+
+    private final AtomicLong wakeups = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong pollNanos = new AtomicLong();
+    private final AtomicLong handlerNanos = new AtomicLong();
+    private final AtomicLong pollsetChanges = new AtomicLong();
+    private final Histogram eventsPerWakeup = new Histogram();
+    private final Histogram timerLateness = new Histogram();
+    private final Histogram handlerLatency = new Histogram();
+    private final ConcurrentMap<Class<?>, Histogram> latencyByHandler = new ConcurrentHashMap<Class<?>, Histogram>();
+    private ObjectName name;
+
+    ZLoopMetrics() {
+    }
+
+    // --------------------------------------------------------------------------
+    // Recording, called by the reactor thread
+
+    void polled(long nanos, int rc) {
+        wakeups.incrementAndGet();
+        pollNanos.addAndGet(nanos);
+        if (rc > 0) {
+            events.addAndGet(rc);
+            eventsPerWakeup.record(rc);
+        } else
+            eventsPerWakeup.record(0);
+    }
+
+    void timerFired(long lateness) {
+        timerLateness.record(lateness);
+    }
+
+    void handled(ZLoop.IZLoopHandler handler, long nanos) {
+        handlerNanos.addAndGet(nanos);
+        handlerLatency.record(nanos);
+        Histogram histogram = latencyByHandler.get(handler.getClass());
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = latencyByHandler.putIfAbsent(handler.getClass(), histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        histogram.record(nanos);
+    }
+
+    void pollsetChanged() {
+        pollsetChanges.incrementAndGet();
+    }
+
+    // --------------------------------------------------------------------------
+    // Reading
+
+    /**
+     * @return a copy of the metrics, including a latency histogram per handler class
+     */
+    public Snapshot snapshot() {
+        Map<String, Histogram.Snapshot> handlers = new HashMap<String, Histogram.Snapshot>();
+        for (Map.Entry<Class<?>, Histogram> entry : latencyByHandler.entrySet())
+            handlers.put(entry.getKey().getName(), entry.getValue().snapshot());
+        return new Snapshot(this, handlers);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, as org.zeromq:type=ZLoop,name=&lt;name&gt;.
+     * @param name name of the loop
+     */
+    public synchronized void register(String name) {
+        this.name = Jmx.register(this, "ZLoop", name);
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        if (name == null)
+            return;
+        try {
+            Jmx.unregister(name, "ZLoop");
+        } finally {
+            name = null;
+        }
+    }
+
+    @Override
+    public long getWakeups() {
+        return wakeups.get();
+    }
+
+    @Override
+    public long getEvents() {
+        return events.get();
+    }
+
+    @Override
+    public double getEventsPerWakeup() {
+        return eventsPerWakeup.snapshot().getMean();
+    }
+
+    @Override
+    public long getPollNanos() {
+        return pollNanos.get();
+    }
+
+    @Override
+    public long getHandlerNanos() {
+        return handlerNanos.get();
+    }
+
+    @Override
+    public double getUtilization() {
+        long busy = handlerNanos.get();
+        long total = busy + pollNanos.get();
+        return total == 0 ? 0 : (double) busy / total;
+    }
+
+    @Override
+    public long getPollsetChanges() {
+        return pollsetChanges.get();
+    }
+
+    @Override
+    public long getTimerCalls() {
+        return timerLateness.snapshot().getCount();
+    }
+
+    @Override
+    public long getTimerLatenessP99Nanos() {
+        return timerLateness.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getTimerLatenessMaxNanos() {
+        return timerLateness.snapshot().getMax();
+    }
+
+    @Override
+    public long getHandlerCalls() {
+        return handlerLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getHandlerLatencyP99Nanos() {
+        return handlerLatency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getHandlerLatencyMaxNanos() {
+        return handlerLatency.snapshot().getMax();
+    }
+
+    @Override
+    public void reset() {
+        wakeups.set(0);
+        events.set(0);
+        pollNanos.set(0);
+        handlerNanos.set(0);
+        pollsetChanges.set(0);
+        eventsPerWakeup.reset();
+        timerLateness.reset();
+        handlerLatency.reset();
+        latencyByHandler.clear();
+    }
+
+    /**
+     * Immutable copy of the metrics of a loop.
+     */
+    public static final class Snapshot {
+        private final long wakeups;
+        private final long events;
+        private final long pollNanos;
+        private final long handlerNanos;
+        private final long pollsetChanges;
+        private final Histogram.Snapshot eventsPerWakeup;
+        private final Histogram.Snapshot timerLateness;
+        private final Histogram.Snapshot handlerLatency;
+        private final Map<String, Histogram.Snapshot> latencyByHandler;
+
+        private Snapshot(ZLoopMetrics metrics, Map<String, Histogram.Snapshot> latencyByHandler) {
+            this.wakeups = metrics.wakeups.get();
+            this.events = metrics.events.get();
+            this.pollNanos = metrics.pollNanos.get();
+            this.handlerNanos = metrics.handlerNanos.get();
+            this.pollsetChanges = metrics.pollsetChanges.get();
+            this.eventsPerWakeup = metrics.eventsPerWakeup.snapshot();
+            this.timerLateness = metrics.timerLateness.snapshot();
+            this.handlerLatency = metrics.handlerLatency.snapshot();
+            this.latencyByHandler = Collections.unmodifiableMap(latencyByHandler);
+        }
+
+        /**
+         * @return number of times the reactor came back from zmq_poll
+         */
+        public long getWakeups() {
+            return wakeups;
+        }
+
+        /**
+         * @return number of ready items reported by zmq_poll
+         */
+        public long getEvents() {
+            return events;
+        }
+
+        /**
+         * @return nanoseconds spent waiting in zmq_poll
+         */
+        public long getPollNanos() {
+            return pollNanos;
+        }
+
+        /**
+         * @return nanoseconds spent in timer and socket handlers
+         */
+        public long getHandlerNanos() {
+            return handlerNanos;
+        }
+
+        /**
+         * @return share of time spent in handlers rather than polling, between 0 and 1
+         */
+        public double getUtilization() {
+            long total = handlerNanos + pollNanos;
+            return total == 0 ? 0 : (double) handlerNanos / total;
+        }
+
+        /**
+         * @return number of pollers registered or cancelled in the poll set
+         */
+        public long getPollsetChanges() {
+            return pollsetChanges;
+        }
+
+        /**
+         * @return ready items per wakeup
+         */
+        public Histogram.Snapshot getEventsPerWakeup() {
+            return eventsPerWakeup;
+        }
+
+        /**
+         * @return nanoseconds between when each timer was due and when it fired
+         */
+        public Histogram.Snapshot getTimerLateness() {
+            return timerLateness;
+        }
+
+        /**
+         * @return nanoseconds spent in each handler call, all handlers together
+         */
+        public Histogram.Snapshot getHandlerLatency() {
+            return handlerLatency;
+        }
+
+        /**
+         * @return nanoseconds spent in each handler call, keyed by the name of the handler's class
+         */
+        public Map<String, Histogram.Snapshot> getLatencyByHandler() {
+            return latencyByHandler;
+        }
+    }
+}
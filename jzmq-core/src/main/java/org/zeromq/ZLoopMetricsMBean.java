@@ -0,0 +1,34 @@
+package org.zeromq;
+
+/**
+ * JMX view of {@link ZLoopMetrics}. Times are in nanoseconds.
+ */
+public interface ZLoopMetricsMBean {
+    public long getWakeups();
+
+    public long getEvents();
+
+    public double getEventsPerWakeup();
+
+    public long getPollNanos();
+
+    public long getHandlerNanos();
+
+    public double getUtilization();
+
+    public long getPollsetChanges();
+
+    public long getTimerCalls();
+
+    public long getTimerLatenessP99Nanos();
+
+    public long getTimerLatenessMaxNanos();
+
+    public long getHandlerCalls();
+
+    public long getHandlerLatencyP99Nanos();
+
+    public long getHandlerLatencyMaxNanos();
+
+    public void reset();
+}
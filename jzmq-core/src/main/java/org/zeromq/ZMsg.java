@@ -96,7 +96,8 @@ public class ZMsg implements Deque<ZFrame>
     }
 
     /**
-     * Creates copy of this ZMsg. Also duplicates all frame content.
+     * Creates copy of this ZMsg. Its frames share their content with the frames
+     * of this ZMsg instead of copying it, see ZFrame.duplicate().
      * @return The duplicated ZMsg object, else null if this ZMsg contains an
      *         empty frame set
      */
@@ -196,31 +197,78 @@ public class ZMsg implements Deque<ZFrame>
      * @return
      */
     public static ZMsg recvMsg(Socket socket, int flag)
+    {
+        return recvMsg(socket, flag, null);
+    }
+
+    /**
+     * Receives message from socket into an existing message, reusing its frames
+     * and their data arrays where the sizes allow, so that a consumer receiving
+     * similar messages allocates nothing in the steady state. Frames of the
+     * reused message beyond those received are dropped. Nothing else may hold
+     * on to the frames of the reused message, as they are overwritten.
+     * 
+     * @param socket
+     * @param flag
+     *            see ZMQ constants
+     * @param reuse
+     *            message to receive into, or null to allocate a new one
+     * @return the received message, which is reuse if given, or null if there
+     *         was no input waiting (reuse is then left unchanged) or if the recv
+     *         was interrupted
+     * @throws ZMQException
+     *             if the recv failed, for instance with ENOBUFS when a frame
+     *             did not fit in a direct frame of reuse; reuse is then emptied,
+     *             as part of it was already overwritten
+     */
+    public static ZMsg recvMsg(Socket socket, int flag, ZMsg reuse)
     {
         if (socket == null)
             throw new IllegalArgumentException("socket is null");
 
-        ZMsg msg = new ZMsg();
+        ZMsg msg = reuse == null ? new ZMsg() : reuse;
+        // Frames are taken from the head for reuse, received ones go to the tail
+        int reusable = msg.size();
+        int received = 0;
 
         while (true) {
-            ZFrame f = ZFrame.recvFrame(socket, flag);
-            if (f == null || !f.hasData()) {
-                // If receive failed or was interrupted
+            ZFrame spare = reusable > 0 ? msg.pollFirst() : null;
+            ZFrame f;
+            try {
+                f = ZFrame.recvFrame(socket, flag, spare);
+            }
+            catch (ZMQException e) {
+                if (spare != null)
+                    spare.destroy();
                 msg.destroy();
-                msg = null;
-                break;
+                throw e;
+            }
+            if (f == null) {
+                if (spare != null)
+                    msg.addFirst(spare);
+                if (received == 0)
+                    return null;
+                // Interrupted in the middle of a multipart message
+                msg.destroy();
+                return null;
             }
-            msg.add(f);
+            if (spare != null)
+                reusable--;
+            msg.addLast(f);
+            received++;
             if (!f.hasMore())
                 break;
         }
+        while (reusable-- > 0)
+            msg.pollFirst();
         return msg;
     }
 
     /**
      * Save message to an open data output stream. Data saved as: 4 bytes:
      * number of frames For every frame: 4 bytes: byte size of frame data + n
-     * bytes: frame byte data
+     * bytes: frame byte data. To persist a stream of messages, see ZMsgJournal,
+     * which stores them in this format with a checksum.
      * @param msg
      *            ZMsg to save
      * @param file
@@ -269,7 +317,7 @@ public class ZMsg implements Deque<ZFrame>
                 while (++msgNbr <= msgSize) {
                     int frameSize = file.readInt();
                     byte[] data = new byte[frameSize];
-                    file.read(data);
+                    file.readFully(data);
                     rcvMsg.add(new ZFrame(data));
                 }
             }
@@ -0,0 +1,177 @@
+package org.zeromq;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Packs small messages into batch frames, to send many of them for the per-message cost of one: a JNI call, a zmq
+ * message and, over TCP, a part of a segment. Like Nagle's algorithm, a batch is sent once it reaches a size limit, or
+ * once its first message has waited for a latency budget, whichever comes first. ZMsgUnbatcher splits batches back
+ * into the original messages on the receiving side.
+ *
+ * <pre>
+ * ZMsgBatcher batcher = new ZMsgBatcher(socket, 8192, 200);
+ * batcher.send(msg, true);
+ * ...
+ * batcher.flushIfDue(); // e.g. from a ZLoop timer, or after each poll
+ * </pre>
+ *
+ * The budget is checked whenever a message is sent, so a batch left waiting because no message follows it is only
+ * sent by flushIfDue() or flush(); nanosUntilFlush() tells when. A batch goes out as one message, so batching suits
+ * sockets that do not route on the first frame of a message, such as PUSH, PUB, DEALER or PAIR.
+ *
+ * A batch is a message of two frames: a marker frame holding exactly four magic bytes, then a frame with each message
+ * in turn: its number of frames as a varint, then each frame as a varint size and its data. Receivers tell batches
+ * from application messages by that shape, so applications must not send two-frame messages whose first frame is
+ * the marker. A batcher is used by the thread owning its socket, like the socket itself.
+ */
+public class ZMsgBatcher
+{
+    public static final int DEFAULT_MAX_SIZE = 8192;
+
+    // Content of the marker frame leading a batch; other messages pass through
+    // ZMsgUnbatcher unchanged
+    static final byte[] MAGIC = { (byte) 0xba, 'Z', 'B', 1 };
+
+    private final Socket socket;
+    private final int maxSize;
+    private final long budget;
+    private final ZFrameEncoder encoder;
+    // Messages in the current batch, and when the first one was added
+    private int count;
+    private long started;
+
+    /**
+     * Creates a batcher sending batches of up to DEFAULT_MAX_SIZE bytes.
+     * @param socket
+     *            socket to send batches on
+     * @param micros
+     *            longest time a message waits for others, in microseconds
+     */
+    public ZMsgBatcher(Socket socket, long micros)
+    {
+        this(socket, DEFAULT_MAX_SIZE, micros);
+    }
+
+    /**
+     * Creates a batcher.
+     * @param socket
+     *            socket to send batches on
+     * @param maxSize
+     *            size in bytes from which a batch is sent at once; a larger
+     *            message is sent alone
+     * @param micros
+     *            longest time a message waits for others, in microseconds; 0
+     *            sends every message at once
+     */
+    public ZMsgBatcher(Socket socket, int maxSize, long micros)
+    {
+        if (socket == null)
+            throw new IllegalArgumentException("socket is null");
+        if (maxSize <= 0 || micros < 0)
+            throw new IllegalArgumentException("Invalid batch size or latency budget");
+        this.socket = socket;
+        this.maxSize = maxSize;
+        this.budget = micros * 1000;
+        this.encoder = new ZFrameEncoder(maxSize, false);
+    }
+
+    /**
+     * Adds a message to the current batch, sending the batch if it is full or
+     * its budget ran out. Never blocks: a batch the socket would not take
+     * stays pending, and once it is full further messages are refused.
+     * @param msg
+     *            message to send
+     * @param destroy
+     *            true to destroy the message once added
+     * @return true if the message was added, false if a full batch could not
+     *         be sent to make room for it, in which case the message is left
+     *         unchanged
+     */
+    public boolean send(ZMsg msg, boolean destroy)
+    {
+        if (msg == null)
+            throw new IllegalArgumentException("msg is null");
+        // Like ZMsg.send(), a message without frames sends nothing
+        if (msg.size() == 0)
+            return true;
+        if (count > 0 && encoder.size() + encodedSize(msg) > maxSize && !flush())
+            return false;
+        long now = System.nanoTime();
+        if (count == 0) {
+            encoder.reset();
+            started = now;
+        }
+        encode(encoder, msg);
+        count++;
+        if (destroy)
+            msg.destroy();
+        if (encoder.size() >= maxSize || now - started >= budget)
+            flush();
+        return true;
+    }
+
+    /**
+     * Sends the current batch, if any, without blocking.
+     * @return true if sent, false if the socket would block, in which case
+     *         the batch is kept to be sent by a later call
+     */
+    public boolean flush()
+    {
+        if (count == 0)
+            return true;
+        if (!socket.send(MAGIC, ZMQ.SNDMORE | ZMQ.DONTWAIT))
+            return false;
+        // zmq queues the rest of a message once it takes its first frame
+        encoder.send(socket, 0);
+        count = 0;
+        return true;
+    }
+
+    /**
+     * Sends the current batch if its latency budget ran out.
+     * @return true if a batch was sent
+     */
+    public boolean flushIfDue()
+    {
+        return count > 0 && nanosUntilFlush() == 0 && flush();
+    }
+
+    /**
+     * @return nanoseconds until the current batch is due, 0 if it is already,
+     *         or -1 if there is none
+     */
+    public long nanosUntilFlush()
+    {
+        if (count == 0)
+            return -1;
+        return Math.max(0, budget - (System.nanoTime() - started));
+    }
+
+    /**
+     * @return number of messages in the current batch
+     */
+    public int pending()
+    {
+        return count;
+    }
+
+    static void encode(ZFrameEncoder encoder, ZMsg msg)
+    {
+        encoder.putVarInt(msg.size());
+        for (ZFrame frame : msg) {
+            byte[] data = frame.hasData() ? frame.getData() : null;
+            if (data != null)
+                encoder.putBytes(data);
+            else
+                encoder.putVarInt(0);
+        }
+    }
+
+    private static int encodedSize(ZMsg msg)
+    {
+        int size = 5;
+        for (ZFrame frame : msg)
+            size += 5 + frame.size();
+        return size;
+    }
+}
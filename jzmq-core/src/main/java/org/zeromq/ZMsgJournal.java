@@ -0,0 +1,587 @@
+package org.zeromq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of messages on disk, to persist a stream of messages and replay it later, for instance after a
+ * restart or to a late subscriber. Messages are numbered in the order they are appended, from 0.
+ *
+ * The log is a directory of segment files of a fixed size, each named after the number of its first message and
+ * mapped in memory, so that appending a message is a copy into the page cache. Each record holds the frames of a
+ * message in the format of ZMsg.save(), after its length and a CRC-32 of its content; a crash can then leave at most
+ * a torn last record, which is detected and dropped when the journal is opened again.
+ *
+ * Appends are on disk once synced. Messages become durable in groups: sync() forces everything appended so far, and
+ * threads calling it while another sync is in progress wait for the next one rather than forcing the files each in
+ * turn. With syncOnAppend set, append() returns only once its message is durable, so concurrent appenders share
+ * their syncs.
+ *
+ * Readers replay the log from any message, found through a sparse index of each segment, and see messages as soon as
+ * they are appended. Retention deletes whole segments, either beyond a maximum number of segments or before a given
+ * message.
+ *
+ * Appends, syncs and reader creation are thread-safe; each Reader is used by one thread at a time. Segments are
+ * mapped until the journal is garbage collected, as Java offers no way to unmap them earlier.
+ */
+public class ZMsgJournal implements Closeable
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final String SUFFIX = ".journal";
+    // Record: length of the content, CRC-32 of the content, content
+    private static final int HEADER_SIZE = 8;
+    // Every INDEX_STRIDE-th record of a segment is indexed
+    private static final int INDEX_STRIDE = 64;
+
+    private final File directory;
+    private final int segmentSize;
+    private final boolean syncOnAppend;
+    private final int maxSegments;
+
+    // Guarded by this
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final List<Segment> unsynced = new ArrayList<Segment>();
+    private final CRC32 crc = new CRC32();
+    private Segment current;
+    private boolean closed;
+
+    // Messages below next are complete and visible to readers
+    private volatile long next;
+
+    // Guarded by syncLock: messages below synced are on disk
+    private final Object syncLock = new Object();
+    private long synced;
+    private boolean syncing;
+
+    /**
+     * Opens a journal with segments of DEFAULT_SEGMENT_SIZE bytes, synced on
+     * demand and kept until deleted.
+     * @param directory
+     *            directory of the segment files, created if needed
+     * @throws IOException
+     *             if the journal could not be opened
+     */
+    public ZMsgJournal(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, false, 0);
+    }
+
+    /**
+     * Opens a journal, creating it if needed, and recovers the messages it
+     * holds.
+     * @param directory
+     *            directory of the segment files, created if needed
+     * @param segmentSize
+     *            size of new segment files in bytes, which bounds the size of
+     *            a message
+     * @param syncOnAppend
+     *            true to return from append() only once the message is on disk
+     * @param maxSegments
+     *            number of segments to keep, the oldest ones being deleted
+     *            when a new one is started; 0 to keep them all
+     * @throws IOException
+     *             if the journal could not be opened, or if it is corrupt
+     *             before its last record
+     */
+    public ZMsgJournal(File directory, int segmentSize, boolean syncOnAppend, int maxSegments) throws IOException
+    {
+        if (segmentSize <= HEADER_SIZE + 4)
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        if (maxSegments < 0)
+            throw new IllegalArgumentException("maxSegments must not be negative");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncOnAppend = syncOnAppend;
+        this.maxSegments = maxSegments;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create journal directory " + directory);
+        recover();
+        synced = next;
+    }
+
+    // ********* Recovery *********************************** //
+
+    private void recover() throws IOException
+    {
+        String[] names = directory.list(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SUFFIX) && name.length() == 20 + SUFFIX.length();
+            }
+        });
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+            long base = Long.parseLong(names[i].substring(0, 20));
+            if (i > 0 && base != next)
+                throw new IOException("Journal segment " + names[i] + " does not follow message " + (next - 1));
+            Segment segment = map(new File(directory, names[i]), base, 0);
+            boolean complete = scan(segment);
+            if (!complete && i < names.length - 1)
+                throw new IOException("Journal segment " + names[i] + " is corrupt before its end");
+            segments.put(base, segment);
+            current = segment;
+            next = base + segment.count;
+        }
+        if (current == null) {
+            current = map(fileOf(0), 0, segmentSize);
+            segments.put(0L, current);
+        }
+    }
+
+    /**
+     * Indexes the valid records of a segment, and erases what follows a torn
+     * or corrupt record.
+     * @return false if the segment holds a torn or corrupt record
+     */
+    private boolean scan(Segment segment)
+    {
+        ByteBuffer buffer = segment.buffer;
+        byte[] chunk = new byte[64 * 1024];
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0)
+                return true;
+            if (length < 4 || length > buffer.capacity() - position - HEADER_SIZE
+                    || checksum(buffer, position + HEADER_SIZE, length, chunk) != buffer.getInt(position + 4)) {
+                for (int i = position; i < buffer.capacity(); i++)
+                    buffer.put(i, (byte) 0);
+                return false;
+            }
+            segment.add(position, HEADER_SIZE + length);
+            position += HEADER_SIZE + length;
+        }
+        return true;
+    }
+
+    private int checksum(ByteBuffer buffer, int position, int length, byte[] chunk)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        crc.reset();
+        while (length > 0) {
+            int n = Math.min(length, chunk.length);
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            length -= n;
+        }
+        return (int) crc.getValue();
+    }
+
+    // ********* Appending ********************************** //
+
+    /**
+     * Appends a message, to be synced later unless syncOnAppend is set.
+     * @param msg
+     *            message to append, left unchanged
+     * @return number of the message in the journal
+     * @throws IOException
+     *             if a new segment could not be created, or the message
+     *             synced
+     * @throws IllegalArgumentException
+     *             if the message does not fit in a segment
+     */
+    public long append(ZMsg msg) throws IOException
+    {
+        long sequence;
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("Journal closed");
+            sequence = write(msg);
+        }
+        if (syncOnAppend)
+            sync(sequence);
+        return sequence;
+    }
+
+    private long write(ZMsg msg) throws IOException
+    {
+        long length = 4;
+        for (ZFrame frame : msg)
+            length += 4 + frame.size();
+        if (HEADER_SIZE + length > segmentSize)
+            throw new IllegalArgumentException("Message of " + length + " bytes does not fit in a segment");
+        if (current.end + HEADER_SIZE + length > current.buffer.capacity())
+            roll();
+
+        MappedByteBuffer buffer = current.buffer;
+        int start = current.end;
+        buffer.position(start + HEADER_SIZE);
+        crc.reset();
+        putInt(buffer, msg.size());
+        for (ZFrame frame : msg) {
+            putInt(buffer, frame.size());
+            if (frame.hasData()) {
+                byte[] data = frame.getData();
+                buffer.put(data);
+                crc.update(data, 0, data.length);
+            }
+        }
+        buffer.position(0);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        // The length comes last, marking the record as complete
+        buffer.putInt(start, (int) length);
+
+        current.add(start, HEADER_SIZE + (int) length);
+        return next++;
+    }
+
+    private void putInt(ByteBuffer buffer, int value)
+    {
+        buffer.putInt(value);
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    private void roll() throws IOException
+    {
+        unsynced.add(current);
+        current = map(fileOf(next), next, segmentSize);
+        segments.put(next, current);
+        while (maxSegments > 0 && segments.size() > maxSegments)
+            delete(segments.firstEntry().getValue());
+    }
+
+    /**
+     * Forces all messages appended so far to disk. Concurrent callers share a
+     * single sync.
+     * @throws IOException
+     *             if the segments could not be synced
+     */
+    public void sync() throws IOException
+    {
+        long last = next - 1;
+        if (last >= 0)
+            sync(last);
+    }
+
+    /**
+     * Waits until a message, and all those before it, are on disk, syncing the
+     * journal unless another thread is already doing so.
+     * @param sequence
+     *            number of an appended message
+     * @throws IOException
+     *             if the segments could not be synced, or the thread was
+     *             interrupted
+     */
+    public void sync(long sequence) throws IOException
+    {
+        if (sequence >= next)
+            throw new IllegalArgumentException("Message " + sequence + " not appended yet");
+        synchronized (syncLock) {
+            while (true) {
+                if (synced > sequence)
+                    return;
+                if (!syncing)
+                    break;
+                try {
+                    syncLock.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for journal sync");
+                }
+            }
+            syncing = true;
+        }
+        long target = 0;
+        List<Segment> forced;
+        synchronized (this) {
+            target = next;
+            forced = new ArrayList<Segment>(unsynced);
+            unsynced.clear();
+            forced.add(current);
+        }
+        boolean done = false;
+        try {
+            for (Segment segment : forced)
+                segment.buffer.force();
+            done = true;
+        }
+        finally {
+            if (!done) {
+                synchronized (this) {
+                    unsynced.addAll(forced);
+                }
+            }
+            synchronized (syncLock) {
+                syncing = false;
+                if (done)
+                    synced = Math.max(synced, target);
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    // ********* Retention ********************************** //
+
+    /**
+     * Deletes the segments holding only messages before a given one. The
+     * segment being appended to is never deleted.
+     * @param sequence
+     *            number of the first message to keep
+     * @return number of segments deleted
+     */
+    public synchronized int deleteBefore(long sequence)
+    {
+        int deleted = 0;
+        while (segments.size() > 1) {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            Long following = segments.higherKey(first.getKey());
+            if (following > sequence)
+                break;
+            delete(first.getValue());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    private void delete(Segment segment)
+    {
+        segments.remove(segment.base);
+        unsynced.remove(segment);
+        // Readers still in the segment keep reading it through its mapping
+        segment.file.delete();
+    }
+
+    /**
+     * @return number of the oldest message kept
+     */
+    public synchronized long firstSequence()
+    {
+        return segments.firstKey();
+    }
+
+    /**
+     * @return number the next appended message will get
+     */
+    public long nextSequence()
+    {
+        return next;
+    }
+
+    /**
+     * Syncs the journal and stops appends. Readers may still be used.
+     * @throws IOException
+     *             if the journal could not be synced
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        sync();
+    }
+
+    // ********* Segments *********************************** //
+
+    private File fileOf(long base)
+    {
+        return new File(directory, String.format("%020d%s", base, SUFFIX));
+    }
+
+    private static Segment map(File file, long base, int size) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long length = size > 0 ? size : raf.length();
+            if (size > 0)
+                raf.setLength(size);
+            // The mapping stays valid once the file is closed
+            return new Segment(file, base, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length));
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private synchronized Segment segmentOf(long sequence)
+    {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+        if (entry == null)
+            throw new IllegalArgumentException("Message " + sequence + " was deleted");
+        return entry.getValue();
+    }
+
+    private static final class Segment
+    {
+        private final File file;
+        private final long base;
+        private final MappedByteBuffer buffer;
+        // End of the records, and their number
+        private int end;
+        private int count;
+        // Offsets of records 0, INDEX_STRIDE, 2 * INDEX_STRIDE...
+        private int[] index = new int[16];
+
+        private Segment(File file, long base, MappedByteBuffer buffer)
+        {
+            this.file = file;
+            this.base = base;
+            this.buffer = buffer;
+        }
+
+        private void add(int offset, int size)
+        {
+            if (count % INDEX_STRIDE == 0) {
+                int slot = count / INDEX_STRIDE;
+                if (slot == index.length)
+                    index = Arrays.copyOf(index, slot * 2);
+                index[slot] = offset;
+            }
+            end = offset + size;
+            count++;
+        }
+    }
+
+    // ********* Replay ************************************* //
+
+    /**
+     * Creates a reader replaying the journal from a given message.
+     * @param sequence
+     *            number of the first message to read, at most nextSequence()
+     * @return the reader
+     * @throws IllegalArgumentException
+     *             if the message was deleted or not appended yet
+     */
+    public Reader reader(long sequence)
+    {
+        Reader reader = new Reader();
+        reader.seek(sequence);
+        return reader;
+    }
+
+    /**
+     * Reads messages of the journal in order, including those appended while
+     * reading.
+     */
+    public final class Reader
+    {
+        private final CRC32 crc = new CRC32();
+        private Segment segment;
+        private ByteBuffer view;
+        private int position;
+        private long sequence;
+
+        private Reader()
+        {
+        }
+
+        /**
+         * @return number of the message next() will return
+         */
+        public long sequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * Moves the reader to a given message, using the index of its segment.
+         * @param sequence
+         *            number of the next message to read, at most nextSequence()
+         * @throws IllegalArgumentException
+         *             if the message was deleted or not appended yet
+         */
+        public void seek(long sequence)
+        {
+            if (sequence > next)
+                throw new IllegalArgumentException("Message " + sequence + " not appended yet");
+            enter(segmentOf(sequence));
+            if (sequence - segment.base > segment.count)
+                throw new IllegalArgumentException("Message " + sequence + " was deleted");
+            int record = (int) (sequence - segment.base);
+            if (record == segment.count) {
+                position = segment.end;
+            }
+            else {
+                position = segment.index[record / INDEX_STRIDE];
+                for (int i = 0; i < record % INDEX_STRIDE; i++)
+                    position += HEADER_SIZE + view.getInt(position);
+            }
+            this.sequence = sequence;
+        }
+
+        private void enter(Segment segment)
+        {
+            this.segment = segment;
+            this.view = segment.buffer.duplicate();
+            this.position = 0;
+        }
+
+        /**
+         * @return the next message, or null if all messages appended so far
+         *         were read
+         * @throws IllegalStateException
+         *             if the record of the message is corrupt
+         */
+        public ZMsg next()
+        {
+            if (sequence >= next)
+                return null;
+            if (sequence == segment.base + segment.count)
+                enter(segmentOf(sequence));
+
+            int length = view.getInt(position);
+            int checksum = view.getInt(position + 4);
+            view.position(position + HEADER_SIZE);
+            crc.reset();
+            ZMsg msg = new ZMsg();
+            int remaining = length - 4;
+            int frames = getInt();
+            for (int i = 0; i < frames; i++) {
+                if (remaining < 4)
+                    throw corrupt();
+                int size = getInt();
+                remaining -= 4;
+                if (size < 0 || size > remaining)
+                    throw corrupt();
+                byte[] data = new byte[size];
+                view.get(data);
+                crc.update(data, 0, size);
+                remaining -= size;
+                msg.add(new ZFrame(data));
+            }
+            if (frames < 0 || remaining != 0 || (int) crc.getValue() != checksum)
+                throw corrupt();
+            position += HEADER_SIZE + length;
+            sequence++;
+            return msg;
+        }
+
+        private int getInt()
+        {
+            int value = view.getInt();
+            crc.update(value >>> 24);
+            crc.update(value >>> 16);
+            crc.update(value >>> 8);
+            crc.update(value);
+            return value;
+        }
+
+        private IllegalStateException corrupt()
+        {
+            return new IllegalStateException("Corrupt journal record " + sequence + " in " + segment.file);
+        }
+    }
+}
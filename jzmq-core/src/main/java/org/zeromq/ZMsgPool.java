@@ -0,0 +1,129 @@
+package org.zeromq;
+
+import java.util.ArrayDeque;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Pool of messages and frames, so that a consumer can receive with ZMsg.recvMsg() and ZFrame.recvFrame() into
+ * objects it no longer needs instead of allocating new ones. Released messages keep their frames, and frames keep
+ * their data arrays, which are reused when received data fits in them. Data shared with duplicates of a frame is
+ * never overwritten; the frame receives into new storage instead.
+ *
+ * A pool is not thread-safe: either use one per thread through local(), or hand messages back to the thread that owns
+ * the pool before releasing them. An object must not be used after it is released.
+ */
+public class ZMsgPool
+{
+    public static final int DEFAULT_SIZE = 64;
+
+    private static final ThreadLocal<ZMsgPool> LOCAL = new ThreadLocal<ZMsgPool>()
+    {
+        @Override
+        protected ZMsgPool initialValue()
+        {
+            return new ZMsgPool(DEFAULT_SIZE);
+        }
+    };
+
+    private final int maxSize;
+    private final ArrayDeque<ZMsg> msgs;
+    private final ArrayDeque<ZFrame> frames;
+
+    /**
+     * @param maxSize
+     *            number of messages, and of frames, kept for reuse; more are left to the garbage collector
+     */
+    public ZMsgPool(int maxSize)
+    {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be positive");
+        this.maxSize = maxSize;
+        this.msgs = new ArrayDeque<ZMsg>(maxSize);
+        this.frames = new ArrayDeque<ZFrame>(maxSize);
+    }
+
+    /**
+     * @return the pool of the current thread
+     */
+    public static ZMsgPool local()
+    {
+        return LOCAL.get();
+    }
+
+    /**
+     * @return a message from the pool, which may still hold frames meant for reuse, or a new one
+     */
+    public ZMsg acquire()
+    {
+        ZMsg msg = msgs.pollLast();
+        return msg == null ? new ZMsg() : msg;
+    }
+
+    /**
+     * Gives a message back to the pool. Send it with destroy set to false beforehand to keep its frame data for reuse.
+     * @param msg
+     *            message to release, may be null
+     */
+    public void release(ZMsg msg)
+    {
+        if (msg != null && msgs.size() < maxSize)
+            msgs.addLast(msg);
+    }
+
+    /**
+     * @return a frame from the pool, which may still hold data meant for reuse, or a new one
+     */
+    public ZFrame acquireFrame()
+    {
+        ZFrame frame = frames.pollLast();
+        return frame == null ? new ZFrame() : frame;
+    }
+
+    /**
+     * Gives a frame back to the pool.
+     * @param frame
+     *            frame to release, may be null
+     */
+    public void releaseFrame(ZFrame frame)
+    {
+        if (frame != null && frames.size() < maxSize)
+            frames.addLast(frame);
+    }
+
+    /**
+     * Receives a message into a pooled message.
+     * @param socket
+     *            socket to read from
+     * @param flags
+     *            see ZMQ constants
+     * @return the received message, to be released once processed, or null if there was no input waiting or if the
+     *         recv was interrupted
+     */
+    public ZMsg recvMsg(Socket socket, int flags)
+    {
+        ZMsg msg = acquire();
+        ZMsg received = ZMsg.recvMsg(socket, flags, msg);
+        if (received == null)
+            release(msg);
+        return received;
+    }
+
+    /**
+     * Receives a frame into a pooled frame.
+     * @param socket
+     *            socket to read from
+     * @param flags
+     *            see ZMQ constants
+     * @return the received frame, to be released once processed, or null if there was no input waiting or if the
+     *         recv was interrupted
+     */
+    public ZFrame recvFrame(Socket socket, int flags)
+    {
+        ZFrame frame = acquireFrame();
+        ZFrame received = ZFrame.recvFrame(socket, flags, frame);
+        if (received == null)
+            releaseFrame(frame);
+        return received;
+    }
+}
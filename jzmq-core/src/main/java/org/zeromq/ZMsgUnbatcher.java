@@ -0,0 +1,124 @@
+package org.zeromq;
+
+import java.nio.BufferUnderflowException;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Splits batches sent by ZMsgBatcher back into the original messages, one at a time, so that handlers see the
+ * messages that were sent. Messages that are not batches are returned unchanged, so a receiver may take both: a
+ * batch is a message of two frames led by the batcher's marker frame, whose second frame is checked to hold
+ * well-formed messages before it is split. ZDispatcher.setUnbatching() does the same for dispatched sockets.
+ *
+ * recvMsg() replaces ZMsg.recvMsg(): it returns the messages left in the last batch before receiving again. A batch
+ * arrives as one message, so a handler woken by a poller should receive until there is nothing left, for instance with
+ * ZMQ.DONTWAIT until recvMsg() returns null, rather than one message per wakeup.
+ *
+ * An unbatcher is not thread-safe.
+ */
+public class ZMsgUnbatcher
+{
+    private final ZFrameDecoder decoder = new ZFrameDecoder();
+    // Frame of the batch being split, null when there is none
+    private ZFrame batch;
+
+    /**
+     * Returns the next message of the current batch, or receives one.
+     * @param socket
+     *            socket to receive from
+     * @param flags
+     *            see ZMQ constants
+     * @return the next message, or null if none could be received
+     */
+    public ZMsg recvMsg(Socket socket, int flags)
+    {
+        if (batch == null) {
+            ZMsg msg = ZMsg.recvMsg(socket, flags);
+            if (msg == null || !begin(msg))
+                return msg;
+        }
+        return next();
+    }
+
+    /**
+     * Starts splitting a message if it is a batch.
+     * @param msg
+     *            message received
+     * @return true if msg was a batch, to be read with next()
+     */
+    public boolean begin(ZMsg msg)
+    {
+        if (!isMarked(msg) || !isWellFormed(decoder.wrap(msg.getLast())))
+            return false;
+        batch = msg.getLast();
+        decoder.wrap(batch);
+        if (!decoder.hasRemaining())
+            batch = null;
+        return true;
+    }
+
+    /**
+     * @return the next message of the current batch, or null if there is none
+     */
+    public ZMsg next()
+    {
+        if (batch == null)
+            return null;
+        // The batch was checked by begin()
+        ZMsg msg = new ZMsg();
+        int frames = decoder.getVarInt();
+        for (int i = 0; i < frames; i++)
+            msg.add(new ZFrame(decoder.getBytes()));
+        if (!decoder.hasRemaining())
+            batch = null;
+        return msg;
+    }
+
+    /**
+     * @return true if messages of the current batch are left
+     */
+    public boolean hasPending()
+    {
+        return batch != null;
+    }
+
+    /**
+     * @param msg
+     *            message to test
+     * @return true if msg is a batch sent by ZMsgBatcher
+     */
+    public static boolean isBatch(ZMsg msg)
+    {
+        return isMarked(msg) && isWellFormed(new ZFrameDecoder(msg.getLast()));
+    }
+
+    private static boolean isMarked(ZMsg msg)
+    {
+        return msg.size() == 2 && msg.getFirst().equals(ZMsgBatcher.MAGIC);
+    }
+
+    // Walks the messages of a batch frame without allocating them
+    private static boolean isWellFormed(ZFrameDecoder decoder)
+    {
+        try {
+            while (decoder.hasRemaining()) {
+                int frames = decoder.getVarInt();
+                if (frames < 0)
+                    return false;
+                for (int i = 0; i < frames; i++) {
+                    int size = decoder.getVarInt();
+                    if (size < 0)
+                        return false;
+                    decoder.skip(size);
+                }
+            }
+            return true;
+        }
+        catch (BufferUnderflowException e) {
+            return false;
+        }
+        catch (IllegalStateException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.zeromq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Sends messages on a socket without ever blocking or dropping them when the socket reaches its high water mark, for
+ * instance while a PUSH or DEALER peer is paused or restarting. Messages the socket would not take are appended to a
+ * ZMsgJournal on disk, and sent from there in order once the socket can take them again; later messages are spilled
+ * behind them so that order is kept. As long as the socket keeps up, messages go straight to it and never touch the
+ * journal.
+ *
+ * drain() sends spilled messages until the socket would block again. It is called by every send(), and should also be
+ * called when the socket becomes writable, e.g. by polling it for POLLOUT while pending() is not zero.
+ *
+ * The number of the next spilled message to send is kept in a small mapped file next to the journal, so that the
+ * backlog survives a restart of the sender: a new sender on the same directory resumes where the previous one
+ * stopped. Delivery is at least once: a message sent just before a crash of the machine may be sent again. Segments
+ * of the journal are deleted once all their messages are sent.
+ *
+ * A sender is used by the thread owning its socket, like the socket itself.
+ */
+public class ZOverflowSender implements Closeable
+{
+    private static final String CURSOR = "cursor";
+
+    private final Socket socket;
+    private final ZMsgJournal journal;
+    private final ZMsgJournal.Reader reader;
+    // Number of the next spilled message to send, also written to the cursor file
+    private final MappedByteBuffer cursor;
+    private long sent;
+    // Spilled message read from the journal that the socket would not take yet
+    private ZMsg head;
+
+    /**
+     * Creates a sender spilling to journal segments of
+     * ZMsgJournal.DEFAULT_SEGMENT_SIZE bytes.
+     * @param socket
+     *            socket to send on
+     * @param directory
+     *            directory of the journal, whose spilled messages are sent
+     *            first
+     * @throws IOException
+     *             if the journal could not be opened
+     */
+    public ZOverflowSender(Socket socket, File directory) throws IOException
+    {
+        this(socket, directory, ZMsgJournal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a sender.
+     * @param socket
+     *            socket to send on
+     * @param directory
+     *            directory of the journal, whose spilled messages are sent
+     *            first
+     * @param segmentSize
+     *            size of the journal segments, which bounds the size of a
+     *            message
+     * @throws IOException
+     *             if the journal could not be opened
+     */
+    public ZOverflowSender(Socket socket, File directory, int segmentSize) throws IOException
+    {
+        if (socket == null)
+            throw new IllegalArgumentException("socket is null");
+        this.socket = socket;
+        this.journal = new ZMsgJournal(directory, segmentSize, false, 0);
+        RandomAccessFile raf = new RandomAccessFile(new File(directory, CURSOR), "rw");
+        try {
+            // A new cursor file is all zeros, i.e. nothing sent yet
+            this.cursor = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        }
+        finally {
+            raf.close();
+        }
+        this.sent = Math.min(Math.max(cursor.getLong(0), journal.firstSequence()), journal.nextSequence());
+        this.reader = journal.reader(sent);
+    }
+
+    /**
+     * Sends a message, or spills it to the journal if the socket would block
+     * or other messages are already waiting there.
+     * @param msg
+     *            message to send
+     * @param destroy
+     *            true to destroy the message once sent or spilled
+     * @return true if the message was sent to the socket, false if it was
+     *         spilled
+     * @throws IOException
+     *             if the message could not be appended to the journal
+     */
+    public boolean send(ZMsg msg, boolean destroy) throws IOException
+    {
+        if (msg == null)
+            throw new IllegalArgumentException("msg is null");
+        drain();
+        boolean queued = pending() == 0 && sendNow(msg);
+        if (!queued && msg.size() > 0)
+            journal.append(msg);
+        if (destroy)
+            msg.destroy();
+        return queued;
+    }
+
+    /**
+     * Sends spilled messages, in order, until the socket would block or none
+     * is left.
+     * @return number of messages sent
+     */
+    public int drain()
+    {
+        int count = 0;
+        while (sent < journal.nextSequence()) {
+            if (head == null)
+                head = reader.next();
+            if (!sendNow(head))
+                break;
+            head = null;
+            cursor.putLong(0, ++sent);
+            count++;
+        }
+        if (count > 0)
+            journal.deleteBefore(sent);
+        return count;
+    }
+
+    /**
+     * Sends all frames of a message unless the socket would block. zmq queues
+     * the rest of a message once it takes its first frame, so only that one is
+     * sent without blocking.
+     */
+    private boolean sendNow(ZMsg msg)
+    {
+        if (msg.size() == 0)
+            return true;
+        Iterator<ZFrame> i = msg.iterator();
+        int flags = ZMQ.DONTWAIT;
+        while (i.hasNext()) {
+            ZFrame frame = i.next();
+            if (!frame.send(socket, flags | (i.hasNext() ? ZMQ.SNDMORE : 0)))
+                return false;
+            flags = 0;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of spilled messages not sent yet
+     */
+    public long pending()
+    {
+        return journal.nextSequence() - sent;
+    }
+
+    /**
+     * Forces the spilled messages and the position of the next one to send to
+     * disk, so that they also survive a crash of the machine.
+     * @throws IOException
+     *             if the journal could not be synced
+     */
+    public void sync() throws IOException
+    {
+        journal.sync();
+        cursor.force();
+    }
+
+    /**
+     * Syncs and closes the journal, leaving messages not sent yet for the next
+     * sender on the same directory. The socket is left open.
+     * @throws IOException
+     *             if the journal could not be synced
+     */
+    @Override
+    public void close() throws IOException
+    {
+        cursor.force();
+        journal.close();
+    }
+}
@@ -1,5 +1,7 @@
 package org.zeromq;
 
+import java.util.concurrent.ThreadFactory;
+
 import org.zeromq.ZMQ.Socket;
 
 public class ZThread {
@@ -11,14 +13,14 @@ public class ZThread {
         public void run(Object[] args);
     }
 
-    private static class ShimThread extends Thread {
+    private static class Shim implements Runnable {
         private ZContext ctx;
         private IAttachedRunnable attachedRunnable;
         private IDetachedRunnable detachedRunnable;
         private Object[] args;
         private Socket pipe;
 
-        protected ShimThread(ZContext ctx, IAttachedRunnable runnable, Object[] args, Socket pipe) {
+        protected Shim(ZContext ctx, IAttachedRunnable runnable, Object[] args, Socket pipe) {
             assert (ctx != null);
             assert (pipe != null);
             assert (runnable != null);
@@ -29,13 +31,12 @@ public class ZThread {
             this.pipe = pipe;
         }
 
-        public ShimThread(IDetachedRunnable runnable, Object[] args) {
+        public Shim(IDetachedRunnable runnable, Object[] args) {
             assert (runnable != null);
             this.detachedRunnable = runnable;
             this.args = args;
         }
 
-        @Override
         public void run() {
             if (attachedRunnable != null) {
                 try {
@@ -58,7 +59,16 @@ public class ZThread {
 
     public static void start(IDetachedRunnable runnable, Object... args) {
         // Prepare child thread
-        Thread shim = new ShimThread(runnable, args);
+        Thread shim = new Thread(new Shim(runnable, args));
+        shim.start();
+    }
+
+    // --------------------------------------------------------------------------
+    // Create a detached thread with the given factory, e.g. one from
+    // VirtualThreads.factory() to run the runnable on a virtual thread.
+
+    public static void startWith(ThreadFactory factory, IDetachedRunnable runnable, Object... args) {
+        Thread shim = factory.newThread(new Shim(runnable, args));
         shim.start();
     }
 
@@ -68,6 +78,15 @@ public class ZThread {
     // pipe becomes unreadable. Returns pipe, or null if there was an error.
 
     public static Socket fork(ZContext ctx, IAttachedRunnable runnable, Object... args) {
+        return fork(null, ctx, runnable, args);
+    }
+
+    // --------------------------------------------------------------------------
+    // Create an attached thread with the given factory, e.g. one from
+    // VirtualThreads.factory(). A virtual thread blocked on its pipe holds on
+    // to its carrier thread, as 0MQ calls are native.
+
+    public static Socket fork(ThreadFactory factory, ZContext ctx, IAttachedRunnable runnable, Object... args) {
         Socket pipe = ctx.createSocket(ZMQ.PAIR);
 
         if (pipe != null) {
@@ -84,8 +103,9 @@ public class ZThread {
         cpipe.connect(String.format("inproc://zctx-pipe-%d", pipe.hashCode()));
 
         // Prepare child thread
-        Thread shim = new ShimThread(ccontext, runnable, args, cpipe);
-        shim.start();
+        Shim shim = new Shim(ccontext, runnable, args, cpipe);
+        Thread thread = factory == null ? new Thread(shim) : factory.newThread(shim);
+        thread.start();
 
         return pipe;
     }
@@ -0,0 +1,48 @@
+package org.zeromq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(99));
+        assertEquals(0.0, snapshot.getMean(), 0.0);
+    }
+
+    @Test
+    public void testPercentilesAreUpperBounds()
+    {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        long p50 = snapshot.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 < 1000);
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void testReset()
+    {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(42);
+        assertEquals(2, histogram.snapshot().getCount());
+        assertEquals(42, histogram.snapshot().getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+}
@@ -0,0 +1,161 @@
+package org.zeromq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MpscRingTest
+{
+    @Test
+    public void testCapacityIsRoundedUp()
+    {
+        assertEquals(1, new MpscRing<Object>(1).capacity());
+        assertEquals(8, new MpscRing<Object>(5).capacity());
+        assertEquals(8, new MpscRing<Object>(8).capacity());
+    }
+
+    @Test
+    public void testOfferFailsWhenFull()
+    {
+        MpscRing<Integer> ring = new MpscRing<Integer>(4);
+        assertTrue(ring.isEmpty());
+        for (int i = 0; i < 4; i++)
+            assertTrue(ring.offer(i));
+        assertTrue(ring.isFull());
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertFalse(ring.isFull());
+        assertTrue(ring.offer(4));
+    }
+
+    @Test
+    public void testDrainKeepsOrderAcrossLaps()
+    {
+        MpscRing<Integer> ring = new MpscRing<Integer>(4);
+        Integer[] buffer = new Integer[3];
+        int next = 0;
+        int expected = 0;
+        for (int lap = 0; lap < 10; lap++) {
+            while (ring.offer(next))
+                next++;
+            int count = ring.drain(buffer);
+            assertEquals(3, count);
+            for (int i = 0; i < count; i++)
+                assertEquals(Integer.valueOf(expected++), buffer[i]);
+        }
+        while (ring.poll() != null)
+            expected++;
+        assertEquals(next, expected);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentProducers() throws InterruptedException
+    {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final MpscRing<long[]> ring = new MpscRing<long[]>(1024);
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < perProducer; i++) {
+                        long[] element = new long[] { producer, i };
+                        while (!ring.offer(element))
+                            Thread.yield();
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        // Each producer's elements must come out in the order it added them
+        long[] expected = new long[producers];
+        long[][] buffer = new long[64][];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int count = ring.drain(buffer);
+            for (int i = 0; i < count; i++) {
+                int producer = (int) buffer[i][0];
+                assertEquals(expected[producer]++, buffer[i][1]);
+            }
+            received += count;
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testOldestMayBeRemovedWhileConsuming() throws InterruptedException
+    {
+        final int total = 200000;
+        final MpscRing<Integer> ring = new MpscRing<Integer>(64);
+        final boolean[] seen = new boolean[total];
+        final AtomicInteger removed = new AtomicInteger();
+
+        // Evicts the oldest elements while the consumer drains
+        Thread evicter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                while (removed.get() < total) {
+                    Integer e = ring.poll();
+                    if (e != null) {
+                        synchronized (seen) {
+                            assertFalse(seen[e]);
+                            seen[e] = true;
+                        }
+                        removed.incrementAndGet();
+                    }
+                }
+            }
+        };
+        Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < total; i++)
+                    while (!ring.offer(i))
+                        Thread.yield();
+            }
+        };
+        evicter.start();
+        producer.start();
+
+        Integer[] buffer = new Integer[16];
+        int last = -1;
+        while (removed.get() < total) {
+            int count = ring.drain(buffer);
+            for (int i = 0; i < count; i++) {
+                // Whatever the consumer gets still comes in order
+                assertTrue(buffer[i] > last);
+                last = buffer[i];
+                synchronized (seen) {
+                    assertFalse(seen[buffer[i]]);
+                    seen[buffer[i]] = true;
+                }
+            }
+            removed.addAndGet(count);
+        }
+        producer.join();
+        evicter.join();
+        for (int i = 0; i < total; i++)
+            assertTrue(seen[i]);
+    }
+}
@@ -0,0 +1,40 @@
+package org.zeromq;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void testExecutorRunsTasksOnVirtualThreads() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.newPerTaskExecutor("test-");
+                Assert.fail("Expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException e) {
+                // Expected before Java 21
+            }
+            return;
+        }
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("test-");
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+                ran.countDown();
+            }
+        });
+        Assert.assertTrue(ran.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread.get()));
+        Assert.assertTrue(thread.get().getName().startsWith("test-"));
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,173 @@
+package org.zeromq;
+
+import org.junit.Test;
+import org.zeromq.ZMQ.Socket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZCompactMsgTest {
+
+    @Test
+    public void testBuildingAndReadingFrames() {
+        ZCompactMsg msg = new ZCompactMsg();
+        msg.add("World");
+        msg.addFirst("Hello");
+        msg.addLast(new ZFrame("!"));
+        msg.wrap(new ZFrame("address"));
+
+        assertEquals(5, msg.size());
+        assertEquals(18, msg.contentSize());
+        assertTrue(msg.peekFirst().streq("address"));
+        assertEquals(0, msg.get(1).size());
+        assertTrue(msg.peekLast().streq("!"));
+        assertFalse(msg.peekLast().hasMore());
+
+        int i = 0;
+        String[] expected = { "address", "", "Hello", "World", "!" };
+        for (ZCompactMsg.FrameView f : msg)
+            assertTrue(f.streq(expected[i++]));
+        assertEquals(5, i);
+
+        assertEquals("address", msg.unwrap().toString());
+        assertEquals("Hello", msg.popString());
+        assertEquals("!", msg.pollLast().toString());
+        assertEquals(1, msg.size());
+        assertEquals(5, msg.contentSize());
+        assertEquals("World", msg.pollFirst().toString());
+        assertNull(msg.pollFirst());
+        assertTrue(msg.isEmpty());
+
+        // Like a Deque, an empty message has no first or last frame to get
+        try {
+            msg.getFirst();
+            fail("Expected no first frame");
+        } catch (NoSuchElementException e) {
+        }
+        try {
+            msg.removeLast();
+            fail("Expected no last frame");
+        } catch (NoSuchElementException e) {
+        }
+    }
+
+    @Test
+    public void testGrowingDropsRemovedFrames() {
+        ZCompactMsg msg = new ZCompactMsg(16, false);
+        for (int i = 0; i < 1000; i++) {
+            msg.add("Frame" + i);
+            if (i >= 20)
+                msg.pop();
+        }
+        assertEquals(20, msg.size());
+        assertTrue(msg.peekFirst().streq("Frame980"));
+        assertTrue(msg.peekLast().streq("Frame999"));
+        assertTrue(msg.capacity() < 1024);
+
+        for (int i = 0; i < 100; i++)
+            msg.addFirst("Head" + i);
+        assertEquals(120, msg.size());
+        assertTrue(msg.peekFirst().streq("Head99"));
+        assertTrue(msg.get(100).streq("Frame980"));
+    }
+
+    @Test
+    public void testDirectMessagesEqualHeapMessages() {
+        ZCompactMsg heap = ZCompactMsg.newStringMsg("Hello", "World");
+        ZCompactMsg direct = new ZCompactMsg(4, true);
+        direct.add("Hello");
+        ByteBuffer world = ByteBuffer.allocateDirect(5);
+        world.put("World".getBytes());
+        world.flip();
+        direct.add(new ZFrame(world));
+        assertTrue(direct.isDirect());
+        assertEquals(heap, direct);
+        assertEquals(heap.hashCode(), direct.hashCode());
+
+        ZCompactMsg copy = direct.duplicate();
+        assertTrue(copy.isDirect());
+        assertEquals(direct, copy);
+        copy.addFirst("Again");
+        assertFalse(direct.equals(copy));
+        assertEquals(2, direct.size());
+
+        ZMsg msg = direct.toMsg();
+        assertEquals(ZMsg.newStringMsg("Hello", "World"), msg);
+        assertEquals(direct, ZCompactMsg.fromMsg(msg));
+    }
+
+    @Test
+    public void testSaveAndLoadInZMsgFormat() throws Exception {
+        ZCompactMsg msg = new ZCompactMsg(8, true);
+        for (int i = 0; i < 10; i++)
+            msg.add("Frame" + i);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(ZCompactMsg.save(msg, new DataOutputStream(bytes)));
+
+        ZMsg loaded = ZMsg.load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(10, loaded.size());
+        assertEquals("Frame3", loaded.toArray()[3].toString());
+
+        ZCompactMsg compact = ZCompactMsg.load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(msg, compact);
+        assertFalse(compact.isDirect());
+    }
+
+    @Test
+    public void testSendingAndReceiving() {
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zcompactmsg.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zcompactmsg.test");
+
+        ZCompactMsg msg = new ZCompactMsg(64, true);
+        for (int i = 0; i < 10; i++)
+            msg.add("Frame" + i);
+        ZCompactMsg sent = msg.duplicate();
+        assertTrue(msg.send(output));
+        assertTrue(msg.isEmpty());
+        ZCompactMsg hello = ZCompactMsg.newStringMsg("Hello");
+        assertTrue(hello.send(output, false));
+        assertEquals(1, hello.size());
+
+        ZMsg received = ZMsg.recvMsg(input);
+        assertEquals(10, received.size());
+        assertEquals(sent.toMsg(), received);
+
+        ZCompactMsg reuse = new ZCompactMsg(16, false);
+        assertTrue(ZCompactMsg.recvMsg(input, 0, reuse) == reuse);
+        assertEquals(hello, reuse);
+
+        assertNull(ZCompactMsg.recvMsg(input, ZMQ.DONTWAIT, reuse));
+        assertEquals(1, reuse.size());
+
+        // Frames go straight into the buffer while they fit, the others grow it
+        ZCompactMsg large = ZCompactMsg.newStringMsg("Hello", "a frame too large for the buffer", "!");
+        assertTrue(large.send(output, false));
+        assertTrue(ZCompactMsg.recvMsg(input, 0, reuse) == reuse);
+        assertEquals(large, reuse);
+        int capacity = reuse.capacity();
+        assertTrue(capacity > 16);
+        hello.send(output, false);
+        assertEquals(hello, ZCompactMsg.recvMsg(input, 0, reuse));
+        assertEquals(capacity, reuse.capacity());
+
+        // Direct messages receive their frames too
+        ZCompactMsg direct = new ZCompactMsg(16, true);
+        large.send(output, false);
+        assertEquals(large, ZCompactMsg.recvMsg(input, 0, direct));
+        ctx.close();
+    }
+}
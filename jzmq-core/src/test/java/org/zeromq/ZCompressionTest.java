@@ -0,0 +1,110 @@
+package org.zeromq;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.zeromq.ZMQ.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZCompressionTest {
+
+    private static String json(int records) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < records; i++)
+            sb.append("{\"symbol\":\"EURUSD\",\"side\":\"BUY\",\"qty\":").append(i).append("},");
+        return sb.append("]").toString();
+    }
+
+    @Test
+    public void testOnlyLargeCompressibleFramesAreCompressed() {
+        ZCompression compression = new ZCompression(100, ZCompression.deflate());
+        byte[] random = new byte[1000];
+        new Random(1).nextBytes(random);
+
+        ZMsg msg = new ZMsg();
+        msg.add("small");
+        msg.add(json(100));
+        msg.add(random);
+        ZMsg original = msg.duplicate();
+
+        compression.encode(msg);
+        assertEquals(4, msg.size());
+        ZFrame[] frames = msg.toArray(new ZFrame[4]);
+        assertEquals("small", frames[0].toString());
+        assertTrue(frames[1].size() < json(100).length() / 4);
+        assertTrue(frames[2].equals(random));
+
+        // An envelope added on the way is left alone
+        msg.push("identity");
+        compression.decode(msg);
+        assertEquals("identity", msg.popString());
+        assertEquals(original, msg);
+        compression.destroy();
+    }
+
+    @Test
+    public void testMessagesWithoutHeaderAreLeftAlone() {
+        ZCompression compression = new ZCompression();
+        ZMsg msg = ZMsg.newStringMsg("Hello", "ZC");
+        assertEquals(ZMsg.newStringMsg("Hello", "ZC"), compression.decode(msg));
+        assertEquals(ZMsg.newStringMsg("Hello", "ZC"), compression.encode(msg));
+        compression.destroy();
+    }
+
+    @Test
+    public void testMessagesWithUnknownCodecsAreLeftAlone() {
+        ZCompression compression = new ZCompression(0, ZCompression.deflate());
+        // A last frame shaped like a header but naming no known codec
+        ZMsg plain = ZMsg.newStringMsg("payload");
+        plain.add(new byte[] { 'Z', 'C', 42, 0, 0, 0, 1, 1 });
+        assertEquals(plain.duplicate(), compression.decode(plain));
+        compression.destroy();
+    }
+
+    @Test
+    public void testCorruptFramesOfAKnownCodecAreRejected() {
+        ZCompression compression = new ZCompression(0, ZCompression.deflate());
+        ZMsg msg = compression.encode(ZMsg.newStringMsg(json(10)));
+        byte[] compressed = msg.getFirst().getData().clone();
+        compressed[0] = 0x7f;
+        msg.getFirst().reset(compressed);
+        ZMsg corrupt = msg.duplicate();
+        try {
+            compression.decode(msg);
+            fail("Expected the message to be rejected");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(corrupt, msg);
+        compression.destroy();
+    }
+
+    @Test
+    public void testSendAndReceive() {
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zcompression.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zcompression.test");
+
+        ZCompression sender = new ZCompression();
+        ZCompression receiver = new ZCompression();
+        ZMsg msg = ZMsg.newStringMsg("key", json(1000));
+        sender.send(msg, output, false);
+        assertEquals(json(1000), msg.getLast().toString());
+
+        ZMsg wire = ZMsg.recvMsg(input);
+        assertEquals(3, wire.size());
+        assertTrue(wire.contentSize() < msg.contentSize() / 4);
+        assertEquals(msg, receiver.decode(wire));
+
+        sender.send(msg.duplicate(), output, true);
+        assertEquals(msg, receiver.recvMsg(input, 0));
+
+        sender.destroy();
+        receiver.destroy();
+        ctx.close();
+    }
+}
@@ -3,18 +3,30 @@ package org.zeromq;
 import org.junit.Test;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 /**
  */
@@ -63,6 +75,52 @@ public class ZDispatcherTest {
         ctx.destroy();
     }
 
+    @Test
+    public void singleMessageWithIdleStrategies() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket logger = ctx.createSocket(ZMQ.PAIR);
+        logger.bind("inproc://zmsg.test");
+        ZMQ.Socket out = ctx.createSocket(ZMQ.PAIR);
+        out.connect("inproc://zmsg.test");
+
+        final String mesgTxt = "Hello";
+
+        ZDispatcher dispatcher = new ZDispatcher();
+
+        ZDispatcher.ZSender outSender = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(out, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+
+            }
+        }, outSender, ZDispatcher.IdleStrategy.backoff(1000, TimeUnit.MILLISECONDS.toNanos(100)));
+
+        dispatcher.registerHandler(logger, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+
+                assertEquals(mesgTxt, msg.poll().toString());
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender(), ZDispatcher.IdleStrategy.polling(ctx, -1));
+
+        // Let both dispatchers go idle before sending
+        Thread.sleep(200);
+
+        ZMsg msg = new ZMsg();
+        ZFrame frame = new ZFrame(mesgTxt);
+        msg.addFirst(frame);
+        outSender.send(msg);
+
+        latch.await(1, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
     @Test
     public void testMessagesDispatchedToDifferentHandlersAreExecutedConcurrently() throws InterruptedException, BrokenBarrierException, TimeoutException {
         final AtomicBoolean threadingIssueDetected = new AtomicBoolean(false);
@@ -135,6 +193,643 @@ public class ZDispatcherTest {
         ctx.destroy();
     }
 
+    @Test
+    public void testMessagesOfOneSocketAreHandledInOrderOnSharedPool() throws InterruptedException {
+        final int nMessages = 1000;
+        final CountDownLatch latch = new CountDownLatch(nMessages);
+        final AtomicBoolean orderingIssueDetected = new AtomicBoolean(false);
+        final AtomicInteger running = new AtomicInteger();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher(Executors.newCachedThreadPool(), Executors.newFixedThreadPool(4));
+
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            private int expected;
+
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                if (running.incrementAndGet() != 1 || Integer.parseInt(msg.popString()) != expected++) {
+                    orderingIssueDetected.set(true);
+                }
+                running.decrementAndGet();
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender());
+
+        ZDispatcher.ZSender senderTwo = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(socketTwo, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        }, senderTwo);
+
+        for (int i = 0; i < nMessages; i++) {
+            ZMsg msg = new ZMsg();
+            msg.add(Integer.toString(i));
+            senderTwo.send(msg);
+        }
+
+        latch.await(5, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+        assertFalse(orderingIssueDetected.get());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testMessagesWithTheSameKeyAreHandledInOrderAcrossLanes() throws InterruptedException {
+        final int nKeys = 8;
+        final int nMessages = 1000;
+        final CountDownLatch latch = new CountDownLatch(nKeys * nMessages);
+        final AtomicBoolean orderingIssueDetected = new AtomicBoolean(false);
+        final ConcurrentMap<String, Integer> expected = new ConcurrentHashMap<String, Integer>();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher(Executors.newCachedThreadPool(), Executors.newFixedThreadPool(4));
+
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                String key = msg.popString();
+                int sequence = Integer.parseInt(msg.popString());
+                Integer previous = expected.put(key, sequence + 1);
+                if (sequence != (previous == null ? 0 : previous)) {
+                    orderingIssueDetected.set(true);
+                }
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender(), ZDispatcher.FIRST_FRAME, 4);
+
+        ZDispatcher.ZSender senderTwo = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(socketTwo, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        }, senderTwo);
+
+        for (int i = 0; i < nMessages; i++) {
+            for (int key = 0; key < nKeys; key++) {
+                ZMsg msg = new ZMsg();
+                msg.add("peer-" + key);
+                msg.add(Integer.toString(i));
+                while (!senderTwo.send(msg)) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        latch.await(5, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+        assertFalse(orderingIssueDetected.get());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testSenderOverflowPolicies() {
+        ZDispatcher.ZSender dropNewest = new ZDispatcher.ZSender(4, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.DROP_NEWEST);
+        ZDispatcher.ZSender dropOldest = new ZDispatcher.ZSender(4, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.DROP_OLDEST);
+        ZDispatcher.ZSender byteBound = new ZDispatcher.ZSender(16, 10, ZDispatcher.OverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 6; i++) {
+            ZMsg msg = new ZMsg();
+            msg.add("msg-" + i);
+            assertEquals(i < 4, dropNewest.send(msg));
+            assertTrue(dropOldest.send(msg.duplicate()));
+            assertEquals(i < 2, byteBound.send(msg.duplicate()));
+        }
+
+        assertEquals(4, dropNewest.getStats().getDepth());
+        assertEquals(2, dropNewest.getStats().getDropped());
+        assertEquals(4, dropOldest.getStats().getDepth());
+        assertEquals(2, dropOldest.getStats().getDropped());
+        assertEquals(20, dropOldest.getStats().getBytes());
+        assertEquals(2, byteBound.getStats().getDepth());
+        assertEquals(10, byteBound.getStats().getBytes());
+        assertEquals(4, byteBound.getStats().getDropped());
+    }
+
+    @Test
+    public void testDefaultSenderWaitsForRoomInsteadOfDropping() throws InterruptedException {
+        final int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        ZDispatcher.ZSender sender = new ZDispatcher.ZSender(4);
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        }, sender);
+        dispatcher.registerHandler(socketTwo, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender());
+
+        // Far more than fit in the sender, without looking at what send() returns
+        for (int i = 0; i < count; i++) {
+            ZMsg msg = new ZMsg();
+            msg.add(Integer.toString(i));
+            sender.send(msg);
+        }
+
+        latch.await(5, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+        assertEquals(0, sender.getStats().getDropped());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testInboundMessagesAreDroppedWhenHandlerFallsBehind() throws InterruptedException {
+        final CountDownLatch handling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.setInboundLimits(4, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.DROP_NEWEST);
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                handling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        }, new ZDispatcher.ZSender());
+
+        socketTwo.send("first", 0);
+        handling.await(1, TimeUnit.SECONDS);
+        assertEquals(0, handling.getCount());
+
+        // The handler is stuck, so only 4 of these fit in the inbound queue
+        for (int i = 0; i < 10; i++) {
+            socketTwo.send("next", 0);
+        }
+        long deadline = System.currentTimeMillis() + 1000;
+        ZDispatcher.QueueStats stats = dispatcher.getInboundStats(socketOne);
+        while (stats.getDepth() + stats.getDropped() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            stats = dispatcher.getInboundStats(socketOne);
+        }
+        assertEquals(4, stats.getDepth());
+        assertEquals(6, stats.getDropped());
+
+        release.countDown();
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testOldestInboundMessagesAreDroppedWhileHandlerIsBusy() throws InterruptedException {
+        final CountDownLatch handling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Queue<String> handled = new ConcurrentLinkedQueue<String>();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.setInboundLimits(4, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.DROP_OLDEST);
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                handling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                handled.add(msg.popString());
+            }
+        }, new ZDispatcher.ZSender());
+
+        socketTwo.send("first", 0);
+        handling.await(1, TimeUnit.SECONDS);
+        assertEquals(0, handling.getCount());
+
+        // The batch of the lane is running, the oldest messages make room
+        for (int i = 0; i < 10; i++) {
+            socketTwo.send(Integer.toString(i), 0);
+        }
+        long deadline = System.currentTimeMillis() + 1000;
+        ZDispatcher.QueueStats stats = dispatcher.getInboundStats(socketOne);
+        while (stats.getDropped() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            stats = dispatcher.getInboundStats(socketOne);
+        }
+        assertEquals(4, stats.getDepth());
+        assertEquals(6, stats.getDropped());
+
+        release.countDown();
+        deadline = System.currentTimeMillis() + 1000;
+        while (handled.size() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("first", "6", "7", "8", "9"), new ArrayList<String>(handled));
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testInboundLimitsAreSplitExactlyBetweenLanes() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher.ZMessageHandler stuck = new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                handled.incrementAndGet();
+            }
+        };
+
+        // Fewer messages than lanes cannot be split
+        ZDispatcher dispatcher = new ZDispatcher(Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        dispatcher.setInboundLimits(3, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.DROP_NEWEST);
+        try {
+            dispatcher.registerHandler(socketOne, stuck, new ZDispatcher.ZSender(), ZDispatcher.FIRST_FRAME, 4);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        // 10 messages over 3 lanes hold 10 messages, not 3 times 4
+        dispatcher.setInboundLimits(10, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.DROP_NEWEST);
+        dispatcher.registerHandler(socketOne, stuck, new ZDispatcher.ZSender(), ZDispatcher.FIRST_FRAME, 3);
+        for (int i = 0; i < 300; i++) {
+            socketTwo.send("key-" + i, 0);
+        }
+        long deadline = System.currentTimeMillis() + 1000;
+        while (dispatcher.getInboundStats(socketOne).getDepth() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // The stuck handlers hold their first batches, the rest is dropped
+        Thread.sleep(100);
+        assertEquals(10, dispatcher.getInboundStats(socketOne).getDepth());
+        assertTrue(dispatcher.getInboundStats(socketOne).getDropped() > 0);
+
+        release.countDown();
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testPausedSocketWaitsForRoomInsteadOfSpinning() throws InterruptedException {
+        final CountDownLatch handling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        final AtomicInteger pausedPasses = new AtomicInteger();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        // Waits only for a wakeup while paused, as the socket keeps its input
+        ZDispatcher.IdleStrategy idleStrategy = new ZDispatcher.IdleStrategy() {
+            private volatile Thread thread;
+
+            @Override
+            public void start(ZMQ.Socket socket) {
+                thread = Thread.currentThread();
+            }
+
+            @Override
+            public void idle(int workCount) {
+            }
+
+            @Override
+            public void idle(int workCount, boolean paused) {
+                if (paused && workCount == 0) {
+                    pausedPasses.incrementAndGet();
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(10));
+                }
+            }
+
+            @Override
+            public void wakeup() {
+                LockSupport.unpark(thread);
+            }
+        };
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.setInboundLimits(4, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.STOP_READING);
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                handling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                handled.incrementAndGet();
+            }
+        }, new ZDispatcher.ZSender(), idleStrategy);
+
+        socketTwo.send("first", 0);
+        handling.await(1, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            socketTwo.send("next", 0);
+        }
+        Thread.sleep(200);
+        assertTrue(pausedPasses.get() > 0);
+        assertTrue(pausedPasses.get() < 10);
+
+        // Room in the lane wakes the dispatcher, which reads again
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (handled.get() < 11 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(11, handled.get());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testFullLaneUnderBlockPolicyKeepsSendingAndDrains() throws InterruptedException {
+        final CountDownLatch handling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+        socketTwo.setReceiveTimeOut(1000);
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.setInboundLimits(8, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.BLOCK);
+        ZDispatcher.ZSender sender = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                handling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                handled.incrementAndGet();
+            }
+        }, sender);
+
+        // A burst far larger than the lane, while the handler is stuck
+        for (int i = 0; i < 100; i++) {
+            socketTwo.send("next", 0);
+        }
+        handling.await(1, TimeUnit.SECONDS);
+        assertEquals(0, handling.getCount());
+
+        // The dispatcher still sends while its lane is full
+        ZMsg reply = new ZMsg();
+        reply.add("reply");
+        sender.send(reply);
+        assertEquals("reply", socketTwo.recvStr(0));
+
+        // And every message is handled once there is room again
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.get() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, handled.get());
+        assertEquals(0, dispatcher.getInboundStats(socketOne).getDropped());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testSenderWorksAfterReregistering() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket logger = ctx.createSocket(ZMQ.PAIR);
+        logger.bind("inproc://zmsg.test");
+        ZMQ.Socket out = ctx.createSocket(ZMQ.PAIR);
+        out.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        ZDispatcher.ZMessageHandler ignore = new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        };
+        ZDispatcher.ZSender outSender = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(out, ignore, outSender);
+        dispatcher.unregisterHandler(out);
+        assertFalse(outSender.send(ZMsg.newStringMsg("Dropped")));
+
+        dispatcher.registerHandler(out, ignore, outSender);
+        dispatcher.registerHandler(logger, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender());
+        assertTrue(outSender.send(ZMsg.newStringMsg("Hello")));
+
+        latch.await(1, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testRejectedRegistrationLeavesNothingBehind() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket logger = ctx.createSocket(ZMQ.PAIR);
+        logger.bind("inproc://zmsg.test");
+        ZMQ.Socket out = ctx.createSocket(ZMQ.PAIR);
+        out.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        ZDispatcher.ZMessageHandler ignore = new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        };
+        ZDispatcher.ZSender outSender = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(out, ignore, outSender, ZDispatcher.IdleStrategy.polling(ctx, -1));
+
+        // The socket is taken: the sender keeps waking its own dispatcher
+        ZDispatcher.IdleStrategy rejected = ZDispatcher.IdleStrategy.polling(ctx, -1);
+        try {
+            dispatcher.registerHandler(out, ignore, outSender, rejected);
+            fail("Expected the socket to be taken");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // The rejected strategy is free for another socket
+        dispatcher.registerHandler(logger, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender(), rejected);
+
+        Thread.sleep(100);
+        assertTrue(outSender.send(ZMsg.newStringMsg("Hello")));
+        latch.await(1, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+
+        // And so is a strategy once its socket is unregistered
+        ZDispatcher.IdleStrategy reused = ZDispatcher.IdleStrategy.busySpin();
+        ZMQ.Socket spare = ctx.createSocket(ZMQ.PAIR);
+        dispatcher.registerHandler(spare, ignore, new ZDispatcher.ZSender(), reused);
+        dispatcher.unregisterHandler(spare);
+        dispatcher.registerHandler(spare, ignore, new ZDispatcher.ZSender(), reused);
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testVirtualHandlersInFlightAreBoundedByInboundLimits() throws InterruptedException {
+        if (!VirtualThreads.isSupported()) {
+            return;
+        }
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger handled = new AtomicInteger();
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket socketOne = ctx.createSocket(ZMQ.PAIR);
+        socketOne.bind("inproc://zmsg.test");
+        ZMQ.Socket socketTwo = ctx.createSocket(ZMQ.PAIR);
+        socketTwo.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.setInboundLimits(4, Long.MAX_VALUE, ZDispatcher.OverflowPolicy.STOP_READING);
+        dispatcher.registerVirtualHandler(socketOne, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                running.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                handled.incrementAndGet();
+            }
+        }, new ZDispatcher.ZSender(), null);
+
+        for (int i = 0; i < 20; i++) {
+            socketTwo.send("msg", 0);
+        }
+        Thread.sleep(200);
+        // The others wait in the socket
+        assertEquals(4, running.get());
+        assertEquals(4, dispatcher.getInboundStats(socketOne).getDepth());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (handled.get() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(20, handled.get());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
+    @Test
+    public void testMetrics() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ZContext ctx = new ZContext();
+
+        ZMQ.Socket logger = ctx.createSocket(ZMQ.PAIR);
+        logger.bind("inproc://zmsg.test");
+        ZMQ.Socket out = ctx.createSocket(ZMQ.PAIR);
+        out.connect("inproc://zmsg.test");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.registerHandler(out, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        }, new ZDispatcher.ZSender());
+        assertNull(dispatcher.getMetrics(out));
+        dispatcher.unregisterHandler(out);
+
+        dispatcher.enableMetrics();
+        ZDispatcher.ZSender outSender = new ZDispatcher.ZSender();
+        dispatcher.registerHandler(out, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+            }
+        }, outSender);
+        dispatcher.registerHandler(logger, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender());
+
+        outSender.send(ZMsg.newStringMsg("Hello"));
+        latch.await(1, TimeUnit.SECONDS);
+        assertEquals(0, latch.getCount());
+
+        ZDispatcherMetrics loggerMetrics = dispatcher.getMetrics(logger);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (loggerMetrics.getHandled() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        ZDispatcherMetrics.Snapshot snapshot = loggerMetrics.snapshot();
+        assertEquals(1, snapshot.getReceived());
+        assertEquals(1, snapshot.getHandled());
+        assertEquals(0, snapshot.getInbound().getDepth());
+        assertEquals(1, dispatcher.getMetrics(out).getSent());
+        assertEquals(0, dispatcher.getMetrics(out).getOutboundDepth());
+
+        dispatcher.shutdown();
+        ctx.destroy();
+    }
+
     @Test
     public void testNoMessageAreSentAfterShutdown() throws InterruptedException, BrokenBarrierException, TimeoutException {
         final AtomicBoolean shutdownIssueDetected = new AtomicBoolean(false);
@@ -0,0 +1,137 @@
+package org.zeromq;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.zeromq.ZMQ.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZFrameEncoderTest {
+
+    private static void encode(ZFrameEncoder encoder) {
+        encoder.putByte((byte) -1).putBoolean(true).putShort((short) -2).putInt(0x01020304).putLong(Long.MIN_VALUE);
+        encoder.putFloat(1.5f).putDouble(-0.25);
+        encoder.putVarInt(127).putVarInt(300).putVarInt(-1).putVarLong(Long.MAX_VALUE);
+        encoder.putSignedVarInt(-3).putSignedVarLong(Long.MIN_VALUE);
+        encoder.putString("price \u20ac \ud83d\ude00").putString(null).putString("BUY");
+        encoder.putBytes(new byte[] { 1, 2, 3 }).putInts(new int[] { -1, 2 }).putLongs(new long[] { 3 });
+        encoder.putDoubles(new double[] { 0.5 });
+    }
+
+    private static void decode(ZFrameDecoder decoder) {
+        assertEquals(-1, decoder.getByte());
+        assertTrue(decoder.getBoolean());
+        assertEquals(-2, decoder.getShort());
+        assertEquals(0x01020304, decoder.getInt());
+        assertEquals(Long.MIN_VALUE, decoder.getLong());
+        assertEquals(1.5f, decoder.getFloat(), 0);
+        assertEquals(-0.25, decoder.getDouble(), 0);
+        assertEquals(127, decoder.getVarInt());
+        assertEquals(300, decoder.getVarInt());
+        assertEquals(-1, decoder.getVarInt());
+        assertEquals(Long.MAX_VALUE, decoder.getVarLong());
+        assertEquals(-3, decoder.getSignedVarInt());
+        assertEquals(Long.MIN_VALUE, decoder.getSignedVarLong());
+        assertEquals("price \u20ac \ud83d\ude00", decoder.getString());
+        assertEquals("", decoder.getString());
+        assertFalse(decoder.nextStringEquals("SELL"));
+        assertTrue(decoder.nextStringEquals("BUY"));
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, decoder.getBytes()));
+        assertTrue(Arrays.equals(new int[] { -1, 2 }, decoder.getInts()));
+        assertTrue(Arrays.equals(new long[] { 3 }, decoder.getLongs()));
+        assertTrue(Arrays.equals(new double[] { 0.5 }, decoder.getDoubles()));
+        assertFalse(decoder.hasRemaining());
+    }
+
+    @Test
+    public void testRoundTripThroughHeapAndDirectFrames() {
+        ZFrameEncoder heap = new ZFrameEncoder(4, false);
+        encode(heap);
+        ZFrame frame = heap.toFrame();
+        assertFalse(frame.isDirect());
+        assertEquals(heap.size(), frame.size());
+        decode(new ZFrameDecoder(frame));
+
+        ZFrameEncoder direct = new ZFrameEncoder(4, true);
+        encode(direct);
+        frame = direct.toFrame();
+        assertTrue(frame.isDirect());
+        assertTrue(frame.equals(heap.toByteArray()));
+        decode(new ZFrameDecoder().wrap(frame));
+
+        // Reused for the next frame
+        heap.reset().putString("again");
+        assertEquals("again", new ZFrameDecoder(heap.toFrame()).getString());
+    }
+
+    @Test
+    public void testEncodingIntoAGivenBuffer() {
+        ByteBuffer target = ByteBuffer.allocateDirect(8);
+        target.position(2);
+        ZFrameEncoder encoder = new ZFrameEncoder(target);
+        encoder.putInt(7).putShort((short) 8);
+        assertEquals(2, target.position());
+        try {
+            encoder.putInt(9);
+            fail("Expected the buffer to be full");
+        } catch (BufferOverflowException e) {
+        }
+
+        ZFrameDecoder decoder = new ZFrameDecoder().wrap(target);
+        assertEquals(7, decoder.getInt());
+        assertEquals(8, decoder.getShort());
+    }
+
+    @Test
+    public void testTruncatedAndMalformedData() {
+        ZFrameDecoder decoder = new ZFrameDecoder(new ZFrame(new byte[] { 0, 1 }));
+        try {
+            decoder.getInt();
+            fail("Expected an underflow");
+        } catch (BufferUnderflowException e) {
+        }
+
+        // A length larger than the data is rejected before allocating
+        decoder.wrap(new ZFrameEncoder().putVarInt(Integer.MAX_VALUE).toByteArray(), 0, 5);
+        try {
+            decoder.getBytes();
+            fail("Expected an underflow");
+        } catch (BufferUnderflowException e) {
+        }
+
+        byte[] malformed = { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1 };
+        try {
+            new ZFrameDecoder().wrap(malformed, 0, malformed.length).getVarInt();
+            fail("Expected a malformed varint");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testSending() {
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zframeencoder.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zframeencoder.test");
+
+        ZFrameEncoder heap = new ZFrameEncoder();
+        encode(heap);
+        assertTrue(heap.send(output, 0));
+        ZFrameEncoder direct = new ZFrameEncoder(16, true);
+        encode(direct);
+        assertTrue(direct.send(output, 0));
+
+        ZFrameDecoder decoder = new ZFrameDecoder();
+        decode(decoder.wrap(ZFrame.recvFrame(input)));
+        decode(decoder.wrap(ZFrame.recvFrame(input, 0, ZFrame.newDirect(256))));
+        ctx.close();
+    }
+}
@@ -1,12 +1,17 @@
 package org.zeromq;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.junit.Test;
 import org.zeromq.ZMQ.Socket;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests ZFrame class
@@ -76,6 +81,55 @@ public class ZFrameTest {
         ctx.close();
     }
 
+    @Test
+    public void testDuplicatesShareData() {
+        ZFrame f = new ZFrame("Hello");
+        ZFrame copy = f.duplicate();
+        ZFrame other = copy.duplicate();
+        assertTrue(copy.getData() == f.getData());
+        assertTrue(other.getData() == f.getData());
+        assertTrue(f.isShared());
+
+        copy.reset("World");
+        assertEquals("Hello", f.toString());
+        assertEquals("World", copy.toString());
+        assertFalse(copy.isShared());
+        assertTrue(f.isShared());
+
+        other.destroy();
+        assertFalse(f.isShared());
+        assertEquals("Hello", f.toString());
+
+        assertFalse(new ZFrame().duplicate().hasData());
+    }
+
+    @Test
+    public void testReceivingIntoSharedFrame() {
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zframe.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zframe.test");
+
+        ZFrame reuse = new ZFrame("12345");
+        ZFrame copy = reuse.duplicate();
+        new ZFrame("Hello").send(output, 0);
+        assertTrue(ZFrame.recvFrame(input, 0, reuse) == reuse);
+        assertEquals("Hello", reuse.toString());
+        assertEquals("12345", copy.toString());
+        assertFalse(reuse.getData() == copy.getData());
+
+        ZFrame direct = ZFrame.newDirect(5);
+        new ZFrame("Hello").send(output, 0);
+        ZFrame.recvFrame(input, 0, direct);
+        copy = direct.duplicate();
+        new ZFrame("World").send(output, 0);
+        ZFrame.recvFrame(input, 0, direct);
+        assertEquals("World", direct.toString());
+        assertEquals("Hello", copy.toString());
+        ctx.close();
+    }
+
     @Test
     public void testReceiving() {
         ZContext ctx = new ZContext();
@@ -113,6 +167,166 @@ public class ZFrameTest {
         ctx.close();
     }
 
+    @Test
+    public void testReceivingIntoExistingFrame() {
+        ZContext ctx = new ZContext();
+
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zframe.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zframe.test");
+
+        ZFrame reuse = new ZFrame("12345");
+        byte[] data = reuse.getData();
+
+        new ZFrame("Hello").send(output, 0);
+        ZFrame f = ZFrame.recvFrame(input, 0, reuse);
+        assertTrue(f == reuse);
+        assertTrue(f.getData() == data);
+        assertEquals("Hello", f.toString());
+
+        // A smaller frame still fits in the array
+        new ZFrame("Hi").send(output, 0);
+        f = ZFrame.recvFrame(input, 0, reuse);
+        assertTrue(f == reuse);
+        assertEquals(2, f.size());
+        assertEquals(5, f.capacity());
+        assertEquals("Hi", f.toString());
+        assertTrue(f.equals("Hi".getBytes()));
+        assertEquals(new ZFrame("Hi"), f);
+        assertEquals(new ZFrame("Hi").hashCode(), f.hashCode());
+        assertArrayEquals("Hi".getBytes(), f.getData());
+
+        // And is sent without what is left of the array
+        f.send(output, 0);
+        assertEquals("Hi", ZFrame.recvFrame(input).toString());
+
+        // A larger one needs a new array
+        new ZFrame("Hello, World").send(output, 0);
+        f = ZFrame.recvFrame(input, 0, reuse);
+        assertTrue(f == reuse);
+        assertEquals("Hello, World", f.toString());
+        assertEquals(12, f.capacity());
+
+        assertNull(ZFrame.recvFrame(input, ZMQ.DONTWAIT, reuse));
+        assertEquals("Hello, World", reuse.toString());
+
+        ctx.destroy();
+    }
+
+    @Test
+    public void testInspectingFrames() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(12);
+        direct.putInt(0x01020304).putLong(-2L).flip();
+        byte[] bytes = new byte[12];
+        direct.duplicate().get(bytes);
+        for (ZFrame f : new ZFrame[] { new ZFrame(direct), new ZFrame(bytes) }) {
+            assertEquals(0x01020304, f.getInt(0));
+            assertEquals(0x04030201, f.getInt(0, ByteOrder.LITTLE_ENDIAN));
+            assertEquals(-2L, f.getLong(4));
+            assertEquals(0xfeffffffffffffffL, f.getLong(4, ByteOrder.LITTLE_ENDIAN));
+            assertTrue(f.startsWith(new byte[] { 1, 2 }));
+            assertFalse(f.startsWith(new byte[] { 2 }));
+            try {
+                f.getLong(5);
+                fail("Expected the read to overrun the frame");
+            } catch (IndexOutOfBoundsException e) {
+            }
+        }
+
+        ZFrame f = new ZFrame("topic.news");
+        assertTrue(f.equalsAscii("topic.news"));
+        assertFalse(f.equalsAscii("topic.new"));
+        assertFalse(f.equalsAscii("topic.n\u00e9ws"));
+        assertTrue(f.equals("topic.news".getBytes()));
+        assertTrue(f.startsWith("topic.".getBytes()));
+        assertFalse(f.startsWith("topic.news.more".getBytes()));
+        assertTrue(f.streq("topic.news"));
+
+        int hash = f.hashCode();
+        assertEquals(hash, f.hashCode());
+        f.reset("topic.other");
+        assertEquals(new ZFrame("topic.other").hashCode(), f.hashCode());
+    }
+
+    @Test
+    public void testDirectFrames() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put("xxHelloxx".getBytes());
+        buffer.position(2);
+        buffer.limit(7);
+
+        ZFrame f = new ZFrame(buffer);
+        assertTrue(f.isDirect());
+        assertTrue(f.hasData());
+        assertEquals(5, f.size());
+        assertEquals("Hello", f.toString());
+        assertTrue(f.streq("Hello"));
+
+        ZFrame heap = new ZFrame("Hello");
+        assertEquals(heap, f);
+        assertEquals(f, heap);
+        assertEquals(heap.hashCode(), f.hashCode());
+
+        ZFrame copy = f.duplicate();
+        assertTrue(copy.isDirect());
+        assertEquals(f, copy);
+
+        ZFrame empty = ZFrame.newDirect(8);
+        assertEquals(0, empty.size());
+        assertEquals(8, empty.capacity());
+    }
+
+    @Test
+    public void testSendingAndReceivingDirectFrames() {
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zframe.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zframe.test");
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(5);
+        buffer.put("Hello".getBytes());
+        buffer.flip();
+        ZFrame f = new ZFrame(buffer);
+        assertTrue(f.send(output, ZMQ.SNDMORE));
+        assertTrue(f.send(output, 0));
+
+        ZFrame reuse = ZFrame.newDirect(16);
+        ZFrame received = ZFrame.recvFrame(input, 0, reuse);
+        assertTrue(received == reuse);
+        assertTrue(received.isDirect());
+        assertTrue(received.hasMore());
+        assertEquals(f, received);
+        received = ZFrame.recvFrame(input, 0, reuse);
+        assertFalse(received.hasMore());
+        assertEquals("Hello", received.toString());
+
+        assertNull(ZFrame.recvFrame(input, ZMQ.DONTWAIT, reuse));
+        assertEquals("Hello", reuse.toString());
+
+        // Frames larger than the buffer are truncated to it
+        new ZFrame("Hello, World").send(output, 0);
+        try {
+            ZFrame.recvFrame(input, 0, ZFrame.newDirect(5));
+            fail("Expected the frame not to fit");
+        } catch (ZMQException e) {
+            assertEquals(ZMQ.Error.ENOBUFS.getCode(), e.getErrorCode());
+        }
+
+        // And the rest of their message is dropped with them
+        ZMsg.newStringMsg("Hello, World", "rest", "of it").send(output);
+        ZMsg.newStringMsg("next").send(output);
+        try {
+            ZFrame.recvFrame(input, 0, ZFrame.newDirect(5));
+            fail("Expected the frame not to fit");
+        } catch (ZMQException e) {
+            assertEquals(ZMQ.Error.ENOBUFS.getCode(), e.getErrorCode());
+        }
+        assertEquals(ZMsg.newStringMsg("next"), ZMsg.recvMsg(input));
+        ctx.close();
+    }
+
     @Test
     public void testStringFrames() {
         ZContext ctx = new ZContext();
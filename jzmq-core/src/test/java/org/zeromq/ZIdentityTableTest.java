@@ -0,0 +1,94 @@
+package org.zeromq;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZIdentityTableTest {
+
+    @Test
+    public void testLookupFromFramesArraysAndBuffers() {
+        ZIdentityTable<String> table = new ZIdentityTable<String>();
+        assertNull(table.put(new ZFrame("peer-1"), "one"));
+        assertNull(table.put("peer-2".getBytes(), "two"));
+        assertEquals("one", table.put("peer-1".getBytes(), "uno"));
+        assertEquals(2, table.size());
+
+        assertEquals("uno", table.get(new ZFrame("peer-1")));
+        assertEquals("two", table.get("xxpeer-2xx".getBytes(), 2, 6));
+        assertNull(table.get("peer-3".getBytes()));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put("peer-2".getBytes()).flip();
+        assertEquals("two", table.get(direct));
+        assertEquals("two", table.get(new ZFrame(direct)));
+        ByteBuffer heap = ByteBuffer.wrap("..peer-1".getBytes());
+        heap.position(2);
+        assertEquals("uno", table.get(heap));
+
+        assertEquals("two", table.remove(new ZFrame("peer-2")));
+        assertFalse(table.containsKey("peer-2".getBytes()));
+        assertTrue(table.containsKey(new ZFrame("peer-1")));
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertNull(table.get(new ZFrame("peer-1")));
+    }
+
+    @Test
+    public void testKeysAreCopiedFromFrames() {
+        ZIdentityTable<Integer> table = new ZIdentityTable<Integer>();
+        ZFrame frame = new ZFrame("abc");
+        table.put(frame, 1);
+        frame.getData()[0] = 'x';
+        assertEquals(Integer.valueOf(1), table.get("abc".getBytes()));
+    }
+
+    @Test
+    public void testMatchesHashMapThroughGrowthAndRemovals() {
+        ZIdentityTable<Integer> table = new ZIdentityTable<Integer>(4);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String key = "id" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), table.remove(key.getBytes()));
+            }
+            else {
+                assertEquals(expected.put(key, i), table.put(new ZFrame(key), i));
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (int i = 0; i < 2000; i++) {
+            String key = "id" + i;
+            assertEquals(expected.get(key), table.get(key.getBytes()));
+        }
+    }
+
+    @Test
+    public void testInternSharesTheKey() {
+        ZIdentityTable<String> table = new ZIdentityTable<String>();
+        ZFrame received = new ZFrame("peer");
+        ZFrame first = table.intern(received);
+        ZFrame second = table.intern(new ZFrame("peer"));
+        assertTrue(table.containsKey(received));
+        assertNull(table.get(received));
+        assertEquals(received, first);
+        assertTrue(first.getData() == second.getData());
+        assertFalse(first.getData() == received.getData());
+
+        first.destroy();
+        assertEquals("peer", table.intern(received).toString());
+
+        ZMsg msg = ZMsg.newStringMsg("request");
+        msg.wrap(second);
+        assertEquals(received, msg.unwrap());
+    }
+}
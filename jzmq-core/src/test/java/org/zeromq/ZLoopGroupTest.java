@@ -0,0 +1,151 @@
+package org.zeromq;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ.PollItem;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+
+public class ZLoopGroupTest {
+
+    private ZContext ctx;
+
+    @Before
+    public void setUp() {
+        ctx = new ZContext();
+    }
+
+    @After
+    public void tearDown() {
+        ctx.destroy();
+    }
+
+    @Test
+    public void testIndexForIsStable() {
+        ZLoopGroup group = new ZLoopGroup(ctx, 4);
+
+        for (int i = 0; i < 100; i++) {
+            String key = "peer-" + i;
+            int index = group.indexFor(key);
+            Assert.assertTrue(index >= 0 && index < group.size());
+            Assert.assertEquals(index, group.indexFor(key));
+            Assert.assertEquals(group.indexFor(key.getBytes()), group.indexFor(key.getBytes()));
+        }
+        group.destroy();
+    }
+
+    @Test(timeout = 5000)
+    public void testKeysAndIndexesPickLoopsSeparately() throws InterruptedException {
+        ZLoopGroup group = new ZLoopGroup(ctx, 8);
+        group.start();
+
+        final Integer key = 12345;
+        final AtomicReference<String> byKey = new AtomicReference<String>();
+        final AtomicReference<String> byIndex = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(2);
+        // A boxed key is hashed, it does not name a loop
+        group.execute(key, new Runnable() {
+            @Override
+            public void run() {
+                byKey.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+        });
+        group.executeOn(3, new Runnable() {
+            @Override
+            public void run() {
+                byIndex.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("zloop-" + group.indexFor(key), byKey.get());
+        Assert.assertEquals("zloop-3", byIndex.get());
+        group.destroy();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotStartAfterDestroy() {
+        ZLoopGroup group = new ZLoopGroup(ctx, 2);
+        group.start();
+        group.destroy();
+        group.start();
+    }
+
+    @Test(timeout = 5000)
+    public void testEqualByteArrayKeysRunOnSameLoop() throws InterruptedException {
+        ZLoopGroup group = new ZLoopGroup(ctx, 8);
+        group.start();
+
+        final int keys = 32;
+        final CountDownLatch done = new CountDownLatch(keys * 2);
+        final String[][] threads = new String[keys][2];
+        for (int i = 0; i < keys; i++) {
+            for (int copy = 0; copy < 2; copy++) {
+                // A new array each time, as every recv of an identity returns
+                Object key = ("peer-" + i).getBytes();
+                final int k = i;
+                final int c = copy;
+                group.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        threads[k][c] = Thread.currentThread().getName();
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < keys; i++) {
+            Assert.assertEquals(threads[i][0], threads[i][1]);
+            Assert.assertEquals("zloop-" + group.indexFor(("peer-" + i).getBytes()), threads[i][0]);
+        }
+        group.destroy();
+    }
+
+    @Test(timeout = 5000)
+    public void testHandOffSocketToLoop() throws InterruptedException {
+        final CountDownLatch bound = new CountDownLatch(2);
+        final CountDownLatch received = new CountDownLatch(1);
+        final AtomicReference<String> message = new AtomicReference<String>();
+        final AtomicReference<Thread> handlerThread = new AtomicReference<Thread>();
+
+        ZLoopGroup group = new ZLoopGroup(ctx, 2, new ZLoopGroup.ICpuAffinity() {
+            @Override
+            public void bind(int index, Thread thread) {
+                bound.countDown();
+            }
+        });
+        group.start();
+        Assert.assertTrue(bound.await(1, TimeUnit.SECONDS));
+
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zloopgroup.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zloopgroup.test");
+
+        int index = group.indexFor("session");
+        group.addPoller("session", new PollItem(output, Poller.POLLIN), new ZLoop.IZLoopHandler() {
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                message.set(((Socket) arg).recvStr(0));
+                handlerThread.set(Thread.currentThread());
+                received.countDown();
+                return 0;
+            }
+        }, output);
+
+        input.send("PING", 0);
+        Assert.assertTrue(received.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("PING", message.get());
+        Assert.assertEquals("zloop-" + index, handlerThread.get().getName());
+
+        group.destroy();
+    }
+}
@@ -18,6 +18,8 @@
  */
 package org.zeromq;
 
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.zeromq.ZMQ.Poller;
@@ -242,4 +244,398 @@ public class ZLoopTest {
         loop.removePoller(pollInput);
         Assert.assertEquals("PING", received);
     }
+
+    @Test(timeout = 1000)
+    public void testZLoopCancelTimer() {
+        int rc = 0;
+
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+
+        ZLoop.IZLoopHandler timerEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                ((Socket) arg).send("PING", 0);
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler cancelledEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                ((Socket) arg).send("CANCELLED", 0);
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler socketEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                // Just end the reactor
+                return -1;
+            }
+        };
+
+        // Both timers would fire before the ping, but are cancelled
+        ZLoop.Timer timer = loop.timer(5, 1, cancelledEvent, input);
+        Assert.assertFalse(timer.isCancelled());
+        timer.cancel();
+        Assert.assertTrue(timer.isCancelled());
+        loop.addTimer(5, 0, cancelledEvent, output);
+        loop.removeTimer(output);
+
+        loop.addTimer(20, 1, timerEvent, input);
+
+        PollItem pollInput = new PollItem(output, Poller.POLLIN);
+        rc = loop.addPoller(pollInput, socketEvent, output);
+        Assert.assertEquals(0, rc);
+        loop.start();
+
+        loop.removePoller(pollInput);
+        Assert.assertEquals("PING", received);
+    }
+
+    @Test(timeout = 1000)
+    public void testZLoopTimersFireInOrder() {
+        final StringBuilder order = new StringBuilder();
+
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+
+        ZLoop.IZLoopHandler timerEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                order.append(arg);
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler pingEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                ((Socket) arg).send(order.toString(), 0);
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler socketEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                // Just end the reactor
+                return -1;
+            }
+        };
+
+        loop.addTimer(30, 1, timerEvent, "C");
+        loop.addTimer(10, 1, timerEvent, "A");
+        loop.addTimer(20, 2, timerEvent, "B");
+        loop.addTimer(50, 1, pingEvent, input);
+
+        PollItem pollInput = new PollItem(output, Poller.POLLIN);
+        loop.addPoller(pollInput, socketEvent, output);
+        loop.start();
+
+        loop.removePoller(pollInput);
+        Assert.assertEquals("ABCB", received);
+    }
+
+    @Test(timeout = 1000)
+    public void testZLoopReplacePollerFromSocketHandler() {
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+
+        ZLoop.IZLoopHandler timerEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                ((Socket) arg).send("PING", 0);
+                return 0;
+            }
+        };
+
+        final ZLoop.IZLoopHandler secondEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                // Just end the reactor
+                return -1;
+            }
+        };
+
+        ZLoop.IZLoopHandler firstEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                ((Socket) arg).recvStr(0);
+                // Swap ourselves for the second handler, which gets the next ping
+                loop.removePoller(item);
+                loop.addPoller(new PollItem((Socket) arg, Poller.POLLIN), secondEvent, arg);
+                loop.addTimer(10, 1, new ZLoop.IZLoopHandler() {
+
+                    @Override
+                    public int handle(ZLoop loop, PollItem item, Object arg) {
+                        ((Socket) arg).send("PONG", 0);
+                        return 0;
+                    }
+                }, input);
+                return 0;
+            }
+        };
+
+        loop.addTimer(0, 1, timerEvent, input);
+
+        PollItem pollInput = new PollItem(output, Poller.POLLIN);
+        Assert.assertEquals(0, loop.addPoller(pollInput, firstEvent, output));
+        loop.start();
+
+        loop.removePoller(pollInput);
+        Assert.assertEquals("PONG", received);
+    }
+
+    @Test(timeout = 1000)
+    public void testZLoopReadBudgetDrainsSocketInOneWakeup() {
+        final int[] passes = new int[1];
+        final int[] seen = new int[2];
+
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+        loop.setReadBudget(10, 0);
+
+        // Fires on every pass of the reactor
+        ZLoop.IZLoopHandler passEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                passes[0]++;
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler socketEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                if ("1".equals(received))
+                    seen[0] = passes[0];
+                if ("5".equals(received)) {
+                    seen[1] = passes[0];
+                    return -1;
+                }
+                return 0;
+            }
+        };
+
+        for (int i = 1; i <= 5; i++)
+            input.send(Integer.toString(i), 0);
+
+        loop.addTimer(0, 0, passEvent, null);
+        PollItem pollInput = new PollItem(output, Poller.POLLIN);
+        loop.addPoller(pollInput, socketEvent, output);
+        loop.start();
+
+        loop.removePoller(pollInput);
+        Assert.assertEquals("5", received);
+        Assert.assertEquals(seen[0], seen[1]);
+    }
+
+    @Test(timeout = 1000)
+    public void testZLoopReadBudgetSurvivesHandlerClosingSocket() {
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+        loop.setReadBudget(10, 0);
+
+        ZLoop.IZLoopHandler socketEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                // Close the socket but leave its poller behind
+                ctx.destroySocket((Socket) arg);
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler timerEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                return -1;
+            }
+        };
+
+        input.send("PING", 0);
+        input.send("PONG", 0);
+        loop.addPoller(new PollItem(output, Poller.POLLIN), socketEvent, output);
+        loop.addTimer(50, 1, timerEvent, null);
+        Assert.assertEquals(-1, loop.start());
+        Assert.assertEquals("PING", received);
+    }
+
+    @Test(timeout = 1000)
+    public void testZLoopMetrics() {
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+        Assert.assertNull(loop.getMetrics());
+        ZLoopMetrics metrics = loop.enableMetrics();
+
+        ZLoop.IZLoopHandler timerEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                ((Socket) arg).send("PING", 0);
+                return 0;
+            }
+        };
+
+        ZLoop.IZLoopHandler socketEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                // Just end the reactor
+                return -1;
+            }
+        };
+
+        loop.addTimer(10, 1, timerEvent, input);
+        PollItem pollInput = new PollItem(output, Poller.POLLIN);
+        loop.addPoller(pollInput, socketEvent, output);
+        loop.start();
+        loop.removePoller(pollInput);
+
+        ZLoopMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals("PING", received);
+        Assert.assertTrue(snapshot.getWakeups() >= 2);
+        Assert.assertTrue(snapshot.getEvents() >= 1);
+        Assert.assertEquals(1, snapshot.getTimerLateness().getCount());
+        Assert.assertEquals(2, snapshot.getHandlerLatency().getCount());
+        Assert.assertEquals(2, snapshot.getLatencyByHandler().size());
+        Assert.assertEquals(2, snapshot.getPollsetChanges());
+    }
+
+    @Test(timeout = 1000)
+    public void testZLoopMetricsKeepOneEntryForScheduledTasks() {
+        ZLoop loop = new ZLoop();
+        assert (loop != null);
+        ZLoopMetrics metrics = loop.enableMetrics();
+        final int[] ran = new int[1];
+
+        for (int i = 0; i < 100; i++) {
+            loop.schedule(0, new Runnable() {
+                @Override
+                public void run() {
+                    ran[0]++;
+                }
+            });
+        }
+        loop.addTimer(20, 1, new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                return -1;
+            }
+        }, null);
+        loop.start();
+
+        ZLoopMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(100, ran[0]);
+        Assert.assertEquals(101, snapshot.getHandlerLatency().getCount());
+        // The tasks and the timer ending the reactor
+        Assert.assertEquals(2, snapshot.getLatencyByHandler().size());
+    }
+
+    @Test(timeout = 5000)
+    public void testZLoopExecuteFromOtherThread() throws InterruptedException {
+        final ZLoop loop = new ZLoop(ctx);
+        final Thread[] reactor = new Thread[1];
+
+        ZLoop.IZLoopHandler socketEvent = new ZLoop.IZLoopHandler() {
+
+            @Override
+            public int handle(ZLoop loop, PollItem item, Object arg) {
+                received = ((Socket) arg).recvStr(0);
+                // Just end the reactor
+                return -1;
+            }
+        };
+        loop.addPoller(new PollItem(output, Poller.POLLIN), socketEvent, output);
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                reactor[0] = Thread.currentThread();
+                loop.start();
+            }
+        };
+        thread.start();
+
+        // Hand the reply back to the reactor thread, which owns the socket
+        final Thread[] ran = new Thread[1];
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = Thread.currentThread();
+                input.send("PONG", 0);
+            }
+        });
+        thread.join();
+        loop.destroy();
+
+        Assert.assertEquals("PONG", received);
+        Assert.assertSame(reactor[0], ran[0]);
+    }
+
+    @Test(timeout = 5000)
+    public void testZLoopScheduleAndCancelFromOtherThread() throws InterruptedException {
+        final ZLoop loop = new ZLoop(ctx);
+        final StringBuilder fired = new StringBuilder();
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                loop.start();
+            }
+        };
+        thread.start();
+
+        // Wait for the reactor to run, so that it owns its timers
+        final CountDownLatch running = new CountDownLatch(1);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+            }
+        });
+        running.await();
+
+        ZLoop.Timer cancelled = loop.schedule(50, new Runnable() {
+            @Override
+            public void run() {
+                fired.append("A");
+            }
+        });
+        loop.schedule(100, new Runnable() {
+            @Override
+            public void run() {
+                fired.append("B");
+                thread.interrupt();
+            }
+        });
+        cancelled.cancel();
+        thread.join();
+        loop.destroy();
+
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertEquals("B", fired.toString());
+    }
 }
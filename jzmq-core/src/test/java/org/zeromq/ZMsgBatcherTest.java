@@ -0,0 +1,162 @@
+package org.zeromq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.zeromq.ZMQ.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZMsgBatcherTest {
+
+    private static ZMsg message(int i) {
+        ZMsg msg = ZMsg.newStringMsg("tick", Integer.toString(i));
+        msg.add(new byte[0]);
+        return msg;
+    }
+
+    @Test
+    public void testSplittingBatches() {
+        ZFrameEncoder encoder = new ZFrameEncoder();
+        for (int i = 0; i < 3; i++)
+            ZMsgBatcher.encode(encoder, message(i));
+        ZMsg batch = new ZMsg();
+        batch.add(ZMsgBatcher.MAGIC);
+        batch.add(encoder.toFrame());
+
+        ZMsgUnbatcher unbatcher = new ZMsgUnbatcher();
+        assertTrue(ZMsgUnbatcher.isBatch(batch));
+        assertTrue(unbatcher.begin(batch));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(unbatcher.hasPending());
+            assertEquals(message(i), unbatcher.next());
+        }
+        assertFalse(unbatcher.hasPending());
+        assertNull(unbatcher.next());
+
+        // Other messages are not batches
+        assertFalse(unbatcher.begin(ZMsg.newStringMsg("plain")));
+        ZMsg payload = new ZMsg();
+        payload.add(encoder.toFrame());
+        assertFalse(ZMsgUnbatcher.isBatch(payload));
+
+        // Nor are messages led by the marker whose content is no batch
+        byte[] truncated = encoder.toByteArray();
+        batch = new ZMsg();
+        batch.add(ZMsgBatcher.MAGIC);
+        batch.add(Arrays.copyOf(truncated, truncated.length - 1));
+        assertFalse(unbatcher.begin(batch));
+        assertFalse(unbatcher.hasPending());
+    }
+
+    @Test
+    public void testBatchIsKeptWhileSocketWouldBlock() {
+        ZContext ctx = new ZContext();
+        Socket push = ctx.createSocket(ZMQ.PUSH);
+        push.bind("inproc://zmsgbatcher.peerless");
+
+        // No peer yet, so the socket takes nothing
+        ZMsgBatcher batcher = new ZMsgBatcher(push, 64, 60000000);
+        assertTrue(batcher.send(message(0), false));
+        assertTrue(batcher.send(message(1), false));
+        assertFalse(batcher.flush());
+        assertEquals(2, batcher.pending());
+
+        // Full batch, which cannot be sent to make room
+        while (batcher.send(message(2), false))
+            ;
+        int pending = batcher.pending();
+
+        Socket pull = ctx.createSocket(ZMQ.PULL);
+        pull.connect("inproc://zmsgbatcher.peerless");
+        assertTrue(batcher.flush());
+        assertEquals(0, batcher.pending());
+
+        ZMsgUnbatcher unbatcher = new ZMsgUnbatcher();
+        assertEquals(message(0), unbatcher.recvMsg(pull, 0));
+        assertEquals(message(1), unbatcher.recvMsg(pull, 0));
+        for (int i = 2; i < pending; i++)
+            assertEquals(message(2), unbatcher.recvMsg(pull, 0));
+        assertFalse(unbatcher.hasPending());
+        ctx.close();
+    }
+
+    @Test
+    public void testDispatcherHandlersSeeBatchedMessages() throws InterruptedException {
+        final int count = 100;
+        final CountDownLatch latch = new CountDownLatch(count + 1);
+        final List<ZMsg> received = Collections.synchronizedList(new ArrayList<ZMsg>());
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zmsgbatcher.dispatcher");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zmsgbatcher.dispatcher");
+
+        ZDispatcher dispatcher = new ZDispatcher();
+        dispatcher.setUnbatching(true);
+        dispatcher.registerHandler(input, new ZDispatcher.ZMessageHandler() {
+            @Override
+            public void handleMessage(ZDispatcher.ZSender sender, ZMsg msg) {
+                received.add(msg);
+                latch.countDown();
+            }
+        }, new ZDispatcher.ZSender());
+
+        ZMsgBatcher batcher = new ZMsgBatcher(output, 256, 60000000);
+        for (int i = 0; i < count; i++)
+            assertTrue(batcher.send(message(i), true));
+        assertTrue(batcher.flush());
+        ZMsg.newStringMsg("plain").send(output);
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++)
+            assertEquals(message(i), received.get(i));
+        assertEquals("plain", received.get(count).popString());
+
+        dispatcher.shutdown();
+        ctx.close();
+    }
+
+    @Test
+    public void testBatchingOverSocket() {
+        ZContext ctx = new ZContext();
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zmsgbatcher.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zmsgbatcher.test");
+
+        // Size limit of 256 bytes and a budget long enough not to expire
+        ZMsgBatcher batcher = new ZMsgBatcher(output, 256, 60000000);
+        for (int i = 0; i < 100; i++)
+            assertTrue(batcher.send(message(i), true));
+        assertTrue(batcher.pending() > 0);
+        assertTrue(batcher.nanosUntilFlush() > 0);
+        assertFalse(batcher.flushIfDue());
+        assertTrue(batcher.flush());
+        assertEquals(-1, batcher.nanosUntilFlush());
+
+        // Unbatched messages are passed through
+        ZMsg.newStringMsg("plain").send(output);
+
+        ZMsgUnbatcher unbatcher = new ZMsgUnbatcher();
+        for (int i = 0; i < 100; i++)
+            assertEquals(message(i), unbatcher.recvMsg(input, 0));
+        assertEquals("plain", unbatcher.recvMsg(input, 0).popString());
+        assertNull(unbatcher.recvMsg(input, ZMQ.DONTWAIT));
+
+        // With no budget every message is sent at once
+        batcher = new ZMsgBatcher(output, 0);
+        batcher.send(message(7), false);
+        assertEquals(0, batcher.pending());
+        assertEquals(message(7), unbatcher.recvMsg(input, 0));
+        ctx.close();
+    }
+}
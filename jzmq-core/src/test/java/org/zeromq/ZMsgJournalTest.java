@@ -0,0 +1,149 @@
+package org.zeromq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZMsgJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("zmsgjournal", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private static ZMsg message(long i) {
+        ZMsg msg = ZMsg.newStringMsg("key", "value " + i);
+        msg.add(new byte[0]);
+        return msg;
+    }
+
+    @Test
+    public void testAppendAndReplay() throws IOException {
+        ZMsgJournal journal = new ZMsgJournal(directory, 4096, false, 0);
+        for (long i = 0; i < 500; i++)
+            assertEquals(i, journal.append(message(i)));
+        journal.sync();
+        assertTrue(directory.list().length > 1);
+
+        ZMsgJournal.Reader reader = journal.reader(0);
+        for (long i = 0; i < 500; i++)
+            assertEquals(message(i), reader.next());
+        assertNull(reader.next());
+
+        // Messages appended while reading are seen
+        journal.append(message(500));
+        assertEquals(message(500), reader.next());
+
+        // Indexed positioning, inside and across segments
+        reader.seek(321);
+        assertEquals(message(321), reader.next());
+        assertEquals(message(322), journal.reader(322).next());
+        journal.close();
+
+        // Reopened journals carry on from their last message
+        journal = new ZMsgJournal(directory, 4096, true, 0);
+        assertEquals(501, journal.nextSequence());
+        assertEquals(501, journal.append(message(501)));
+        assertEquals(message(499), journal.reader(499).next());
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        ZMsgJournal journal = new ZMsgJournal(directory, 4096, false, 0);
+        journal.append(message(0));
+        journal.append(message(1));
+        journal.close();
+
+        // Corrupt the last byte of the second record
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        int first = raf.readInt();
+        raf.seek(8 + first);
+        int second = raf.readInt();
+        raf.seek(8 + first + 8 + second - 1);
+        raf.write(0x55);
+        raf.close();
+
+        journal = new ZMsgJournal(directory, 4096, false, 0);
+        assertEquals(1, journal.nextSequence());
+        assertEquals(1, journal.append(message(2)));
+        ZMsgJournal.Reader reader = journal.reader(0);
+        assertEquals(message(0), reader.next());
+        assertEquals(message(2), reader.next());
+        assertNull(reader.next());
+        journal.close();
+    }
+
+    @Test
+    public void testRetention() throws IOException {
+        ZMsgJournal journal = new ZMsgJournal(directory, 1024, false, 3);
+        for (long i = 0; i < 300; i++)
+            journal.append(message(i));
+        assertEquals(3, directory.list().length);
+        long first = journal.firstSequence();
+        assertTrue(first > 0);
+        assertEquals(message(first), journal.reader(first).next());
+        try {
+            journal.reader(first - 1);
+            fail("Expected a deleted message");
+        } catch (IllegalArgumentException e) {
+        }
+
+        assertEquals(2, journal.deleteBefore(journal.nextSequence()));
+        assertEquals(1, directory.list().length);
+        assertEquals(message(299), journal.reader(299).next());
+        journal.close();
+    }
+
+    @Test
+    public void testConcurrentAppendersShareSyncs() throws Exception {
+        final ZMsgJournal journal = new ZMsgJournal(directory, 1 << 16, true, 0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; i++)
+                            journal.append(message(i));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(400, journal.nextSequence());
+
+        ZMsgJournal.Reader reader = journal.reader(0);
+        int count = 0;
+        while (reader.next() != null)
+            count++;
+        assertEquals(400, count);
+        journal.close();
+    }
+}
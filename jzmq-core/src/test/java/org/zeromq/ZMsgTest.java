@@ -35,6 +35,59 @@ public class ZMsgTest {
         assertFalse(msg.equals(reverseMsg));
     }
 
+    @Test
+    public void testRecvMsgReusesFramesAndData() {
+        ZContext ctx = new ZContext();
+
+        Socket output = ctx.createSocket(ZMQ.PAIR);
+        output.bind("inproc://zmsg.test");
+        Socket input = ctx.createSocket(ZMQ.PAIR);
+        input.connect("inproc://zmsg.test");
+
+        ZMsgPool pool = new ZMsgPool(4);
+        assertNull(pool.recvMsg(input, ZMQ.DONTWAIT));
+
+        ZMsg.newStringMsg("Hello", "World").send(output);
+        ZMsg msg = pool.recvMsg(input, 0);
+        assertEquals(2, msg.size());
+        ZFrame first = msg.getFirst();
+        byte[] data = first.getData();
+        pool.release(msg);
+
+        // Same sizes, so the same message, frames and arrays come back
+        ZMsg.newStringMsg("Howdy", "Earth", "!").send(output);
+        ZMsg again = pool.recvMsg(input, 0);
+        assertTrue(again == msg);
+        assertTrue(again.getFirst() == first);
+        assertTrue(again.getFirst().getData() == data);
+        assertEquals("Howdy", again.popString());
+        assertEquals("Earth", again.popString());
+        assertEquals("!", again.popString());
+
+        // Nothing waiting leaves the reused message untouched
+        ZMsg reuse = ZMsg.newStringMsg("Kept");
+        assertNull(ZMsg.recvMsg(input, ZMQ.DONTWAIT, reuse));
+        assertEquals(1, reuse.size());
+        assertEquals("Kept", reuse.peekFirst().toString());
+
+        // A frame too large for a direct frame of the message empties it
+        ZMsg direct = new ZMsg();
+        direct.add(ZFrame.newDirect(5));
+        direct.add(ZFrame.newDirect(5));
+        ZMsg.newStringMsg("Hello", "Hello, World").send(output);
+        ZMsg.newStringMsg("next").send(output);
+        try {
+            ZMsg.recvMsg(input, 0, direct);
+            fail("Expected the frame not to fit");
+        } catch (ZMQException e) {
+            assertEquals(ZMQ.Error.ENOBUFS.getCode(), e.getErrorCode());
+        }
+        assertEquals(0, direct.size());
+        assertEquals(ZMsg.newStringMsg("next"), ZMsg.recvMsg(input, 0, direct));
+
+        ctx.destroy();
+    }
+
     @Test
     public void testSingleFrameMessage() {
         ZContext ctx = new ZContext();
@@ -0,0 +1,97 @@
+package org.zeromq;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZOverflowSenderTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("zoverflowsender", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private static void drainAll(ZOverflowSender sender) throws InterruptedException {
+        for (int i = 0; i < 100 && sender.pending() > 0; i++) {
+            if (sender.drain() == 0)
+                Thread.sleep(10);
+        }
+        assertEquals(0, sender.pending());
+    }
+
+    @Test
+    public void testSpillsWhilePeerIsAwayAndDrainsInOrder() throws Exception {
+        ZContext ctx = new ZContext();
+        Socket push = ctx.createSocket(ZMQ.PUSH);
+        push.bind("inproc://zoverflowsender.test");
+
+        // No peer yet: a PUSH socket would block, so messages are spilled
+        ZOverflowSender sender = new ZOverflowSender(push, directory, 4096);
+        for (int i = 0; i < 100; i++)
+            assertFalse(sender.send(ZMsg.newStringMsg("msg", Integer.toString(i)), true));
+        assertEquals(100, sender.pending());
+
+        Socket pull = ctx.createSocket(ZMQ.PULL);
+        pull.connect("inproc://zoverflowsender.test");
+        drainAll(sender);
+        for (int i = 0; i < 100; i++)
+            assertEquals(ZMsg.newStringMsg("msg", Integer.toString(i)), ZMsg.recvMsg(pull));
+
+        // Sent segments are deleted, and new messages take the fast path
+        assertEquals(2, directory.list().length);
+        assertTrue(sender.send(ZMsg.newStringMsg("direct"), true));
+        assertEquals("direct", ZMsg.recvMsg(pull).popString());
+
+        sender.close();
+        ctx.close();
+    }
+
+    @Test
+    public void testBacklogSurvivesRestart() throws Exception {
+        ZContext ctx = new ZContext();
+        Socket push = ctx.createSocket(ZMQ.PUSH);
+        push.bind("inproc://zoverflowsender.restart");
+        ZOverflowSender sender = new ZOverflowSender(push, directory, 4096);
+        for (int i = 0; i < 10; i++)
+            sender.send(ZMsg.newStringMsg(Integer.toString(i)), true);
+        sender.close();
+        ctx.destroySocket(push);
+
+        push = ctx.createSocket(ZMQ.PUSH);
+        push.bind("inproc://zoverflowsender.restart2");
+        Socket pull = ctx.createSocket(ZMQ.PULL);
+        pull.connect("inproc://zoverflowsender.restart2");
+        sender = new ZOverflowSender(push, directory, 4096);
+        assertEquals(10, sender.pending());
+        drainAll(sender);
+        for (int i = 0; i < 10; i++)
+            assertEquals(Integer.toString(i), ZMsg.recvMsg(pull).popString());
+        sender.close();
+
+        // Nothing is sent twice
+        sender = new ZOverflowSender(push, directory, 4096);
+        assertEquals(0, sender.pending());
+        sender.close();
+        ctx.close();
+    }
+}
@@ -1,5 +1,10 @@
 package org.zeromq;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.zeromq.ZMQ.Socket;
 import org.junit.Assert;
 import org.junit.Test;
@@ -24,6 +29,32 @@ public class ZThreadTest {
         ZThread.start(detached);
     }
 
+    @Test
+    public void testDetachedWithThreadFactory() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicReference<String> name = new AtomicReference<String>();
+
+        ZThread.IDetachedRunnable detached = new ZThread.IDetachedRunnable() {
+
+            @Override
+            public void run(Object[] args) {
+                name.set(Thread.currentThread().getName());
+                ran.countDown();
+            }
+        };
+        ThreadFactory factory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "detached");
+            }
+        };
+
+        ZThread.startWith(factory, detached);
+        Assert.assertTrue(ran.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("detached", name.get());
+    }
+
     @Test
     public void testFork() {
         ZContext ctx = new ZContext();
@@ -29,6 +29,16 @@ public class ZMQForwarder implements Runnable {
         this.poller.register(inSocket, ZMQ.Poller.POLLIN);
     }
 
+    /**
+     * Sets how the device waits for incoming messages, e.g. spinning before blocking to cut wakeup latency. Must be
+     * called before the device is started.
+     * 
+     * @param strategy the poll strategy to use.
+     */
+    public void setPollStrategy(ZMQ.PollStrategy strategy) {
+        poller.setPollStrategy(strategy);
+    }
+
     /**
      * Forwarding messages.
      */
@@ -33,6 +33,16 @@ public class ZMQQueue implements Runnable, Closeable {
         this.poller.register(outSocket, ZMQ.Poller.POLLIN);
     }
 
+    /**
+     * Sets how the device waits for incoming messages, e.g. spinning before blocking to cut wakeup latency. Must be
+     * called before the device is started.
+     * 
+     * @param strategy the poll strategy to use.
+     */
+    public void setPollStrategy(ZMQ.PollStrategy strategy) {
+        poller.setPollStrategy(strategy);
+    }
+
     /**
      * Queuing of requests and replies.
      */
@@ -26,6 +26,7 @@
 #include "org_zeromq_ZMQ_Socket.h"
 
 static jfieldID  socketHandleFID;
+static jfieldID  receivedSizeFID;
 static jmethodID contextHandleMID;
 static jmethodID limitMID;
 static jmethodID positionMID;
@@ -46,6 +47,7 @@ Java_org_zeromq_ZMQ_00024Socket_nativeInit (JNIEnv *env, jclass c)
     contextHandleMID = env->GetMethodID(contextcls, "getContextHandle", "()J");
     env->DeleteLocalRef(contextcls);
     socketHandleFID = env->GetFieldID(c, "socketHandle", "J");
+    receivedSizeFID = env->GetFieldID(c, "receivedSize", "I");
 }
 
 inline void *get_socket (JNIEnv *env, jobject obj)
@@ -892,6 +894,52 @@ JNIEXPORT jbyteArray JNICALL Java_org_zeromq_ZMQ_00024Socket_recv__I (JNIEnv *en
     return data;
 }
 
+/**
+ * Called by Java's Socket::recv(byte[] reuse, int offset, int flags).
+ */
+JNIEXPORT jbyteArray JNICALL Java_org_zeromq_ZMQ_00024Socket_recv___3BII (JNIEnv *env,
+                                                                     jobject obj,
+                                                                     jbyteArray reuse,
+                                                                     jint offset,
+                                                                     jint flags)
+{
+    if (offset < 0) {
+        raise_exception(env, EINVAL);
+        return NULL;
+    }
+
+    zmq_msg_t message;
+    if (!do_read(env,obj,&message,flags)) {
+        return NULL;
+    }
+    int sz = zmq_msg_size (&message);
+    void* pd = zmq_msg_data (&message);
+
+    // Any array with room for the message after offset can be reused, the
+    // length of the message is passed back in receivedSize
+    jbyteArray data = reuse;
+    if (! data || env->GetArrayLength (data) < offset || env->GetArrayLength (data) - offset < sz) {
+        data = env->NewByteArray (sz);
+        offset = 0;
+        if (! data) {
+            zmq_msg_close(&message);
+            raise_exception (env, EINVAL);
+            return NULL;
+        }
+    }
+
+    env->SetByteArrayRegion (data, offset, sz, (jbyte*) pd);
+    env->SetIntField (obj, receivedSizeFID, sz);
+
+    int rc = zmq_msg_close(&message);
+    if(rc == -1) {
+        int err = zmq_errno();
+        raise_exception (env, err);
+        return NULL;
+    }
+    return data;
+}
+
 JNIEXPORT jboolean JNICALL Java_org_zeromq_ZMQ_00024Socket_monitor (JNIEnv *env,
                                                                     jobject obj,
                                                                     jstring addr,
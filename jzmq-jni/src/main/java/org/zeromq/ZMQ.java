@@ -22,7 +22,6 @@ import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.charset.Charset;
-import java.util.LinkedList;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Arrays;
@@ -327,6 +326,20 @@ public class ZMQ {
         return Poller.run_poll(items, count, timeout);
     }
 
+    /**
+     * Poll on polling items until timeout, waiting as described by the given strategy
+     * 
+     * @param items polling items
+     * @param count active item count
+     * @param timeout timeout in millisecond
+     * @param strategy how to wait for events
+     * @return number of events
+     */
+    public static int poll(PollItem[] items, int count, long timeout, PollStrategy strategy) {
+
+        return strategy.poll(items, count, timeout);
+    }
+
     protected static native int version_full();
 
     protected static native int version_major();
@@ -1723,6 +1736,38 @@ public class ZMQ {
          */
         public native byte[] recv(int flags);
 
+        /**
+         * Receive a message, reusing an array when it is long enough to hold the message. The array may then be
+         * longer than the message, whose length is given by getReceivedSize().
+         * 
+         * @param reuse array to copy the message payload in to, from index 0, if it is long enough; may be null.
+         * @param flags the flags to apply to the receive operation.
+         * @return reuse if the message was copied in to it, else a new array of the length of the message; null on
+         *         error.
+         */
+        public byte[] recv(byte[] reuse, int flags) {
+            return recv(reuse, 0, flags);
+        }
+
+        /**
+         * Receive a message, reusing an array when the message fits in it after a given offset. The length of the
+         * message is given by getReceivedSize().
+         * 
+         * @param reuse array to copy the message payload in to, from offset, if it has room for it; may be null.
+         * @param offset where to copy the message in reuse.
+         * @param flags the flags to apply to the receive operation.
+         * @return reuse if the message was copied in to it, else a new array of the length of the message, holding
+         *         it from index 0; null on error.
+         */
+        public native byte[] recv(byte[] reuse, int offset, int flags);
+
+        /**
+         * @return the length of the message last received by recv(byte[], int) or recv(byte[], int, int).
+         */
+        public int getReceivedSize() {
+            return receivedSize;
+        }
+
         /**
          * Receive a message in to a specified buffer.
          * 
@@ -1875,6 +1920,8 @@ public class ZMQ {
         
         /** Opaque data used by JNI driver. */
         private long socketHandle;
+        /** Set by the JNI driver in recv(byte[], int, int). */
+        private int receivedSize;
         private final Context context;
         // private Constants use the appropriate setter instead.
         private static final int HWM = 1;
@@ -2068,10 +2115,10 @@ public class ZMQ {
         private int registerInternal(PollItem item) {
             int pos = -1;
 
-            if (!this.freeSlots.isEmpty()) {
+            if (this.freeCount > 0) {
                 // If there are free slots in our array, remove one
                 // from the free list and use it.
-                pos = this.freeSlots.remove();
+                pos = this.freeSlots[--this.freeCount];
             } else {
                 if (this.next >= this.size) {
                     // It is necessary to grow the arrays.
@@ -2081,17 +2128,18 @@ public class ZMQ {
 
                     // Create new internal arrays.
                     PollItem[] ns = new PollItem[nsize];
-                    short[] ne = new short[nsize];
-                    short[] nr = new short[nsize];
+                    int[] nf = new int[nsize];
 
                     // Copy contents of current arrays into new arrays.
                     for (int i = 0; i < this.next; ++i) {
                         ns[i] = this.items[i];
                     }
+                    System.arraycopy(this.freeSlots, 0, nf, 0, this.freeCount);
 
                     // Swap internal arrays and size to new values.
                     this.size = nsize;
                     this.items = ns;
+                    this.freeSlots = nf;
                 }
                 pos = this.next++;
             }
@@ -2133,7 +2181,7 @@ public class ZMQ {
                 if (item.socket == socket || item.channel == socket) {
                     this.items[i] = null;
 
-                    this.freeSlots.add(i);
+                    this.freeSlots[this.freeCount++] = i;
                     --this.used;
 
                     break;
@@ -2244,7 +2292,28 @@ public class ZMQ {
                 return 0;
             }
 
-            return run_poll(this.items, this.used, tout);
+            return strategy.poll(this.items, this.used, tout);
+        }
+
+        /**
+         * Get the strategy used by poll() to wait for events.
+         * 
+         * @return the current poll strategy.
+         */
+        public PollStrategy getPollStrategy() {
+            return this.strategy;
+        }
+
+        /**
+         * Set the strategy used by poll() to wait for events. Defaults to {@link PollStrategy#BLOCKING}.
+         * 
+         * @param strategy the desired poll strategy.
+         */
+        public void setPollStrategy(PollStrategy strategy) {
+            if (strategy == null)
+                throw new IllegalArgumentException("strategy is null");
+
+            this.strategy = strategy;
         }
 
         /**
@@ -2311,7 +2380,7 @@ public class ZMQ {
 
             this.items = new PollItem[this.size];
 
-            freeSlots = new LinkedList<Integer>();
+            freeSlots = new int[this.size];
         }
 
         /**
@@ -2348,12 +2417,126 @@ public class ZMQ {
         private int next = 0;
         private int used = 0;
         private PollItem[] items = null;
+        private PollStrategy strategy = PollStrategy.BLOCKING;
         // When socket is removed from polling, store free slots here
-        private LinkedList<Integer> freeSlots = null;
+        private int[] freeSlots = null;
+        private int freeCount = 0;
 
         private static final int SIZE_DEFAULT = 32;
         private static final int SIZE_INCREMENT = 16;
     }
+
+    /**
+     * Inner class: PollStrategy.
+     * 
+     * Describes how a poll waits for events. The poll first busy-spins for spinMicros, checking the ZMQ_EVENTS of
+     * every socket without entering zmq_poll, then keeps checking while yielding the CPU for yieldMicros, and only then
+     * blocks in zmq_poll for whatever remains of the timeout. Spinning trades CPU for wakeup latency, so it is best
+     * kept to threads running on dedicated cores.
+     */
+    public static class PollStrategy {
+        /**
+         * Always block straight away in zmq_poll.
+         */
+        public static final PollStrategy BLOCKING = new PollStrategy(0, 0);
+
+        // zmq_poll takes its timeout in milliseconds since ZeroMQ 3.0, in microseconds before.
+        private static final long NANOS_PER_TIMEOUT_UNIT = getMajorVersion() >= 3 ? 1000000L : 1000L;
+
+        private final long spinNanos;
+        private final long yieldNanos;
+
+        /**
+         * Class constructor.
+         * 
+         * @param spinMicros how long to busy-spin before yielding, in microseconds.
+         * @param yieldMicros how long to spin while yielding before blocking, in microseconds.
+         */
+        public PollStrategy(long spinMicros, long yieldMicros) {
+            if (spinMicros < 0 || yieldMicros < 0)
+                throw new IllegalArgumentException("spin and yield periods must not be negative");
+
+            this.spinNanos = spinMicros * 1000;
+            this.yieldNanos = yieldMicros * 1000;
+        }
+
+        /**
+         * @return how long to busy-spin before yielding, in microseconds.
+         */
+        public long getSpinMicros() {
+            return spinNanos / 1000;
+        }
+
+        /**
+         * @return how long to spin while yielding before blocking, in microseconds.
+         */
+        public long getYieldMicros() {
+            return yieldNanos / 1000;
+        }
+
+        /**
+         * @return true if this strategy goes straight into a blocking zmq_poll.
+         */
+        public boolean isBlocking() {
+            return spinNanos == 0 && yieldNanos == 0;
+        }
+
+        /**
+         * Poll on polling items until timeout, following this strategy.
+         * 
+         * @param items polling items, may be sparse
+         * @param count active item count
+         * @param timeout timeout in milliseconds (microseconds before ZeroMQ 3.0), -1 to wait forever
+         * @return number of events
+         */
+        int poll(PollItem[] items, int count, long timeout) {
+            if (timeout == 0 || count <= 0 || isBlocking()) {
+                return Poller.run_poll(items, count, timeout);
+            }
+
+            final long start = System.nanoTime();
+            final long spinEnd = start + spinNanos;
+            final long yieldEnd = spinEnd + yieldNanos;
+            final long deadline = start + timeout * NANOS_PER_TIMEOUT_UNIT;
+            long now = start;
+
+            while (now - yieldEnd < 0) {
+                if (mayBeReady(items)) {
+                    // Let zmq_poll fill in revents, it won't block.
+                    int rc = Poller.run_poll(items, count, 0);
+                    if (rc != 0)
+                        return rc;
+                }
+                if (now - spinEnd >= 0)
+                    Thread.yield();
+                now = System.nanoTime();
+                if (timeout > 0 && now - deadline >= 0)
+                    return 0;
+            }
+
+            if (timeout < 0)
+                return Poller.run_poll(items, count, -1);
+            // Round up so that we never wake up before the deadline.
+            return Poller.run_poll(items, count, (deadline - now + NANOS_PER_TIMEOUT_UNIT - 1) / NANOS_PER_TIMEOUT_UNIT);
+        }
+
+        /**
+         * Check the items without a system call where possible. Raw channels cannot be checked that way, so their
+         * presence always sends us through a non-blocking zmq_poll.
+         */
+        private static boolean mayBeReady(PollItem[] items) {
+            for (int i = 0; i < items.length; ++i) {
+                PollItem item = items[i];
+                if (item == null)
+                    continue;
+                if (item.socket == null)
+                    return true;
+                if ((item.socket.getEvents() & item.events) != 0)
+                    return true;
+            }
+            return false;
+        }
+    }
     
     /**
      * Inner class: Event.
@@ -622,6 +622,32 @@ public class ZMQTest {
         context.term();
     }
 
+    @Test
+    public void testPollerSpinThenBlock() {
+        Context context = ZMQ.context(1);
+        Socket push = context.socket(ZMQ.PUSH);
+        Socket pull = context.socket(ZMQ.PULL);
+        pull.bind("inproc://spin.poll");
+        push.connect("inproc://spin.poll");
+
+        Poller poller = new ZMQ.Poller(1);
+        poller.setPollStrategy(new ZMQ.PollStrategy(100, 100));
+        poller.register(pull, ZMQ.Poller.POLLIN);
+
+        // Nothing to read, so we spin, yield and then block until the timeout
+        assertEquals(0, poller.poll(10));
+        assertFalse(poller.pollin(0));
+
+        push.send("hello", 0);
+        assertEquals(1, poller.poll(1000));
+        assertTrue(poller.pollin(0));
+        assertEquals("hello", new String(pull.recv(0)));
+
+        push.close();
+        pull.close();
+        context.term();
+    }
+
     @Test(expected = ZMQException.class)
     public void testPollingInvalidSockets() {
         Context context = ZMQ.context(1);